@@ -1,21 +1,101 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// 已知部件，每个部件对应产品中的一个固定槽位
+enum Part
+{
+    CPU("CPU"),
+    SSD("SSD"),
+    MAIN_BOARD("MainBoard");
+
+    private static final Part[] VALUES = values();
+    // values() 每次都会复制数组，需要部件数量时用这个常量
+    static final int COUNT = VALUES.length;
+
+    final String key;
+
+    Part(String key)
+    {
+        this.key = key;
+    }
+
+    // 未知部件返回 null
+    static Part of(String key)
+    {
+        if (key == null) {
+            return null;
+        }
+        switch (key) {
+            case "CPU": return CPU;
+            case "SSD": return SSD;
+            case "MainBoard": return MAIN_BOARD;
+            default: return null;
+        }
+    }
+
+    static Part at(int ordinal)
+    {
+        return VALUES[ordinal];
+    }
+}
 
 //产品角色
 class Product
 {
+    // 已知部件存放在按枚举序号索引的数组中，只有未知部件才会用到 Map
+    private final String[] slots = new String[Part.COUNT];
+    private Map<String, String> extraParts;
 
-    private Map<String, String> parts = new HashMap<>();
+    public void addPart(Part part, String name){
+        slots[part.ordinal()] = name;
+    }
 
     public void addPart(String item, String name){
-        parts.put(item, name);
+        Part part = Part.of(item);
+        if (part != null) {
+            addPart(part, name);
+            return;
+        }
+        if (extraParts == null) {
+            extraParts = new HashMap<>();
+        }
+        extraParts.put(item, name);
+    }
+
+    public String getPart(Part part){
+        return slots[part.ordinal()];
     }
 
     public void show()
     {
         System.out.println("Compute contains:");
-        for (String key : parts.keySet()) {
-            System.out.println(key + " : " + parts.get(key));
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                System.out.println(Part.at(i).key + " : " + slots[i]);
+            }
+        }
+        if (extraParts != null) {
+            for (String key : extraParts.keySet()) {
+                System.out.println(key + " : " + extraParts.get(key));
+            }
         }
     }
 }
@@ -29,6 +109,8 @@ abstract class Builder
     abstract void buildMainBoard(String MainBoard);
     //返回产品对象
     abstract Product getResult();
+    //开始构建下一个产品，建造者本身可以重复使用
+    abstract void reset();
 }
 
 // 具体建造者
@@ -39,19 +121,19 @@ class ConcreteBuilder extends Builder
     @Override
     public void buildCpu(String cpu)
     {
-        product.addPart("CPU", cpu);
+        product.addPart(Part.CPU, cpu);
     }
 
     @Override
     public void buildSsd(String ssd)
     {
-        product.addPart("SSD", ssd);
+        product.addPart(Part.SSD, ssd);
     }
 
     @Override
     public void buildMainBoard(String MainBoard)
     {
-        product.addPart("MainBoard", MainBoard);
+        product.addPart(Part.MAIN_BOARD, MainBoard);
     }
 
     @Override
@@ -59,11 +141,19 @@ class ConcreteBuilder extends Builder
         return product;
     }
 
+    @Override
+    public void reset(){
+        product = new Product();
+    }
+
 }
 
 // 指挥者
 class Director
 {
+    // 每个线程复用一个建造者，批量构建时不必为每个产品新建建造者
+    private static final ThreadLocal<Builder> LOCAL_BUILDERS = ThreadLocal.withInitial(ConcreteBuilder::new);
+
     private Builder builder;
 
     public Director(Builder builder)
@@ -74,6 +164,18 @@ class Director
     //产品构建与组装方法
     public Product construct(Map<String, String> Parts)
     {
+        return assemble(builder, Parts);
+    }
+
+    //批量构建：把部件配置流转换为产品流，并行流中每个线程使用自己的建造者
+    public static Stream<Product> constructAll(Stream<Map<String, String>> partsStream)
+    {
+        return partsStream.map(parts -> assemble(LOCAL_BUILDERS.get(), parts));
+    }
+
+    static Product assemble(Builder builder, Map<String, String> Parts)
+    {
+        builder.reset();
         builder.buildCpu(Parts.get("CPU"));
         builder.buildSsd(Parts.get("SSD"));
         builder.buildMainBoard(Parts.get("MainBoard"));
@@ -81,6 +183,146 @@ class Director
     }
 }
 
+/**
+ * 流式指挥者：从配置文件中逐段读取部件规格（内存映射，按窗口滑动，不把整个文件读入内存），
+ * 按块分发到线程池并行构建，同时在途的块数有上限以限制内存占用。
+ * 文件每行一个产品，格式为 "CPU=...;SSD=...;MainBoard=..."，空行忽略。
+ * ordered 为 true 时按文件顺序把产品交给 sink；为 false 时各线程构建完直接交给 sink，sink 需线程安全。
+ */
+class StreamingDirector
+{
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final int threads;
+    private final int chunkSize;
+    private final int maxInFlightChunks;
+    private final boolean ordered;
+
+    public StreamingDirector(int threads, int chunkSize, int maxInFlightChunks, boolean ordered)
+    {
+        if (threads <= 0 || chunkSize <= 0 || maxInFlightChunks <= 0) {
+            throw new IllegalArgumentException("threads, chunkSize and maxInFlightChunks must be positive");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.maxInFlightChunks = maxInFlightChunks;
+        this.ordered = ordered;
+    }
+
+    //返回构建的产品数量
+    public long construct(Path file, Consumer<Product> sink) throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Future<List<Product>>> inFlight = new ArrayDeque<>();
+        long[] count = new long[1];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<String> chunk = new ArrayList<>(chunkSize);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                boolean last = position + length == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = (int) length;
+                if (!last) {
+                    while (end > 0 && window.get(end - 1) != '\n') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        throw new IOException("line longer than " + WINDOW_SIZE + " bytes at offset " + position);
+                    }
+                }
+                int start = 0;
+                for (int i = 0; i < end; i++) {
+                    if (window.get(i) == '\n') {
+                        chunk = addLine(window, start, i, chunk, executor, inFlight, sink, count);
+                        start = i + 1;
+                    }
+                }
+                if (last && start < end) {
+                    chunk = addLine(window, start, end, chunk, executor, inFlight, sink, count);
+                }
+                position += end;
+            }
+            if (!chunk.isEmpty()) {
+                submit(chunk, executor, inFlight, sink);
+            }
+            while (!inFlight.isEmpty()) {
+                count[0] += drain(inFlight.pollFirst(), sink);
+            }
+            return count[0];
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<String> addLine(MappedByteBuffer window, int from, int to, List<String> chunk,
+                                 ExecutorService executor, Deque<Future<List<Product>>> inFlight,
+                                 Consumer<Product> sink, long[] count) throws IOException
+    {
+        if (to > from && window.get(to - 1) == '\r') {
+            to--;
+        }
+        if (to == from) {
+            return chunk;
+        }
+        byte[] bytes = new byte[to - from];
+        window.get(from, bytes);
+        chunk.add(new String(bytes, StandardCharsets.UTF_8));
+        if (chunk.size() < chunkSize) {
+            return chunk;
+        }
+        // 在途块数达到上限时，先等待最早提交的块完成
+        while (inFlight.size() >= maxInFlightChunks) {
+            count[0] += drain(inFlight.pollFirst(), sink);
+        }
+        submit(chunk, executor, inFlight, sink);
+        return new ArrayList<>(chunkSize);
+    }
+
+    private void submit(List<String> lines, ExecutorService executor, Deque<Future<List<Product>>> inFlight,
+                        Consumer<Product> sink)
+    {
+        inFlight.addLast(executor.submit(() -> {
+            List<Product> products = Director.constructAll(lines.stream().map(StreamingDirector::parse))
+                    .collect(Collectors.toList());
+            if (!ordered) {
+                products.forEach(sink);
+            }
+            return products;
+        }));
+    }
+
+    private long drain(Future<List<Product>> future, Consumer<Product> sink) throws IOException
+    {
+        List<Product> products;
+        try {
+            products = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while constructing products");
+        } catch (ExecutionException e) {
+            throw new IOException("failed to construct products", e.getCause());
+        }
+        if (ordered) {
+            products.forEach(sink);
+        }
+        return products.size();
+    }
+
+    private static Map<String, String> parse(String line)
+    {
+        Map<String, String> parts = new HashMap<>();
+        for (String entry : line.split(";")) {
+            int eq = entry.indexOf('=');
+            if (eq > 0) {
+                parts.put(entry.substring(0, eq).trim(), entry.substring(eq + 1).trim());
+            }
+        }
+        return parts;
+    }
+}
+
 public class BuilderDemo {
 
     /**
@@ -117,12 +359,16 @@ public class BuilderDemo {
         Director director=new Director(builder);
         Product product=director.construct(temp);
         product.show();
+
+        long count = Director.constructAll(Stream.generate(() -> temp).limit(1000).parallel()).count();
+        System.out.println("Constructed : " + count);
     }
 
 }
 
 //Console OUT:
 //Compute contains:
-//SSD : SamSung 860PRO 500G
 //CPU : Intel i7 6950X
+//SSD : SamSung 860PRO 500G
 //MainBoard :  微星B450M MORTAR
+//Constructed : 1000
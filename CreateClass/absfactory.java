@@ -18,6 +18,12 @@
  * 以上资料整理得来，非原创，若有侵权联系删除。
  */
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 interface IProduct1 {
     void show();
 }
@@ -38,9 +44,29 @@ class Product2 implements IProduct2 {
     }
 }
 
+class ProductB1 implements IProduct1 {
+    public void show() {
+        System.out.println("this is product B1.");
+    }
+}
+
+class ProductB2 implements IProduct2 {
+    public void show() {
+        System.out.println("this is product B2");
+    }
+}
+
 interface IFactory {
     IProduct1 createProduct1();
     IProduct2 createProduct2();
+
+    // 批量创建 count 个产品族，写入调用方提供的数组 [offset, offset + count)
+    default void createFamilies(IProduct1[] products1, IProduct2[] products2, int offset, int count) {
+        for (int i = offset, end = offset + count; i < end; i++) {
+            products1[i] = createProduct1();
+            products2[i] = createProduct2();
+        }
+    }
 }
 
 class Factory implements IFactory{
@@ -50,17 +76,126 @@ class Factory implements IFactory{
     public IProduct2 createProduct2() {
         return new Product2();
     }
+
+    @Override
+    public void createFamilies(IProduct1[] products1, IProduct2[] products2, int offset, int count) {
+        for (int i = offset, end = offset + count; i < end; i++) {
+            products1[i] = new Product1();
+            products2[i] = new Product2();
+        }
+    }
+}
+
+class FactoryB implements IFactory{
+    public IProduct1 createProduct1() {
+        return new ProductB1();
+    }
+    public IProduct2 createProduct2() {
+        return new ProductB2();
+    }
+}
+
+/**
+ * 当前生效的产品族，可在运行时切换（例如 A/B 测试）。
+ * 创建路径上只有一次 acquire 读，不加锁；只有一个产品族在用时调用点保持单态，JIT 可以内联具体的 create 方法。
+ */
+class FactoryProvider {
+    private static final VarHandle ACTIVE;
+
+    static {
+        try {
+            ACTIVE = MethodHandles.lookup().findStaticVarHandle(FactoryProvider.class, "active", IFactory.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static IFactory active = new Factory();
+
+    public static IFactory current() {
+        return (IFactory) ACTIVE.getAcquire();
+    }
+
+    // 切换产品族，返回之前生效的工厂
+    public static IFactory swap(IFactory factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null");
+        }
+        return (IFactory) ACTIVE.getAndSetRelease(factory);
+    }
+}
+
+/**
+ * 大批量产品族的并行创建：把区间二分拆成子任务交给 ForkJoinPool，
+ * 小于阈值的区间直接调用工厂的 createFamilies 顺序创建。
+ */
+class FamilyBatch extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int THRESHOLD = 8192;
+
+    private final IFactory factory;
+    private final IProduct1[] products1;
+    private final IProduct2[] products2;
+    private final int offset;
+    private final int count;
+
+    private FamilyBatch(IFactory factory, IProduct1[] products1, IProduct2[] products2, int offset, int count) {
+        this.factory = factory;
+        this.products1 = products1;
+        this.products2 = products2;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    public static void create(ForkJoinPool pool, IFactory factory,
+                              IProduct1[] products1, IProduct2[] products2, int offset, int count) {
+        // offset + count 可能溢出，交给 checkFromIndexSize 判断
+        Objects.checkFromIndexSize(offset, count, products1.length);
+        Objects.checkFromIndexSize(offset, count, products2.length);
+        if (count <= THRESHOLD) {
+            factory.createFamilies(products1, products2, offset, count);
+        } else {
+            pool.invoke(new FamilyBatch(factory, products1, products2, offset, count));
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (count <= THRESHOLD) {
+            factory.createFamilies(products1, products2, offset, count);
+            return;
+        }
+        int half = count >>> 1;
+        invokeAll(new FamilyBatch(factory, products1, products2, offset, half),
+                new FamilyBatch(factory, products1, products2, offset + half, count - half));
+    }
 }
 
 
 public class absfactory {
     public static void main(String[] args){
-        IFactory factory = new Factory();
+        IFactory factory = FactoryProvider.current();
         factory.createProduct1().show();
         factory.createProduct2().show();
+
+        // 批量创建产品族
+        IProduct1[] products1 = new IProduct1[100_000];
+        IProduct2[] products2 = new IProduct2[100_000];
+        FamilyBatch.create(ForkJoinPool.commonPool(), factory, products1, products2, 0, products1.length);
+        products1[products1.length - 1].show();
+        products2[products2.length - 1].show();
+
+        // 运行时切换产品族
+        FactoryProvider.swap(new FactoryB());
+        FactoryProvider.current().createProduct1().show();
+        FactoryProvider.current().createProduct2().show();
     }
 }
 
 // out:
 // this is product 1.
 // this is product 2
+// this is product 1.
+// this is product 2
+// this is product B1.
+// this is product B2
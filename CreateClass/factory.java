@@ -7,6 +7,12 @@
 一个工厂只生产一类产品，相比简单工厂模式，添加新产品对象时不需要修改已有代码结构，仅添加新的具体产品对象和产品工厂类，符合开闭原则
 */
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
 interface Cat {
     void Meow();
 }
@@ -82,6 +88,256 @@ class RagdollBuild implements abstractCatBuild{
     }
 }
 
+// 产品的复用策略
+enum CatPolicy {
+    // 每次创建新实例
+    NEW,
+    // 所有调用方共享同一个实例，适用于无状态产品
+    SHARED,
+    // 从池中取，用完通过 CatRegistry.release 归还
+    POOLED,
+    // 每个线程一个实例
+    THREAD_LOCAL;
+
+    // 产品类（含父类）没有实例字段即视为无状态，可以共享
+    static CatPolicy detect(Class<?> productType) {
+        for (Class<?> c = productType; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    return NEW;
+                }
+            }
+        }
+        return SHARED;
+    }
+}
+
+// 按策略包装具体工厂，并统计节省的分配次数
+class CachingCatBuild implements abstractCatBuild {
+    // POOLED 策略下池中最多保留的空闲实例数，超出的归还直接丢弃
+    static final int POOL_CAPACITY = 64;
+
+    private final abstractCatBuild delegate;
+    private final CatPolicy policy;
+    private final Cat shared;
+    private final ThreadLocal<Cat> perThread;
+    private final Queue<Cat> pool;
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder avoided = new LongAdder();
+    // 产品的具体类，未知时在第一次创建产品时记录；归还时只接受这个类的实例
+    private volatile Class<?> productType;
+
+    // sample 为注册时已经创建的产品实例（可以为 null），会被复用而不是丢弃
+    CachingCatBuild(abstractCatBuild delegate, CatPolicy policy, Class<?> productType, Cat sample) {
+        this.delegate = delegate;
+        this.policy = policy;
+        this.productType = productType;
+        if (sample != null) {
+            allocations.increment();
+        }
+        this.shared = policy == CatPolicy.SHARED ? (sample != null ? sample : create()) : null;
+        this.perThread = policy == CatPolicy.THREAD_LOCAL ? new ThreadLocal<>() : null;
+        this.pool = policy == CatPolicy.POOLED ? new ArrayBlockingQueue<>(POOL_CAPACITY) : null;
+        if (pool != null && sample != null) {
+            pool.offer(sample);
+        }
+    }
+
+    @Override
+    public Cat getCat() {
+        switch (policy) {
+            case SHARED:
+                avoided.increment();
+                return shared;
+            case THREAD_LOCAL:
+                Cat own = perThread.get();
+                if (own == null) {
+                    own = create();
+                    perThread.set(own);
+                } else {
+                    avoided.increment();
+                }
+                return own;
+            case POOLED:
+                Cat cat = pool.poll();
+                if (cat != null) {
+                    avoided.increment();
+                    return cat;
+                }
+                return create();
+            default:
+                return create();
+        }
+    }
+
+    // 只接受本工厂产品类的实例；池满时丢弃
+    void release(Cat cat) {
+        if (policy != CatPolicy.POOLED || cat == null) {
+            return;
+        }
+        if (cat.getClass() != productType) {
+            throw new IllegalArgumentException(cat.getClass().getName() + " was not built by this factory");
+        }
+        pool.offer(cat);
+    }
+
+    CatPolicy policy() {
+        return policy;
+    }
+
+    long allocations() {
+        return allocations.sum();
+    }
+
+    long allocationsAvoided() {
+        return avoided.sum();
+    }
+
+    private Cat create() {
+        allocations.increment();
+        Cat cat = delegate.getCat();
+        if (productType == null && cat != null) {
+            productType = cat.getClass();
+        }
+        return cat;
+    }
+}
+
+/**
+ * 工厂注册表：类型名（不区分大小写）到具体工厂的映射，替代简单工厂中的 equalsIgnoreCase 链。
+ * 查找表为开放寻址的不可变数组，注册时整体重建后替换；查找过程不分配任何对象，期望常数时间。
+ * 具体工厂本身无状态，注册后复用同一个实例，调用方不必每次 new 一个工厂。
+ */
+class CatRegistry {
+
+    private static final class Table {
+        final String[] keys;
+        final CachingCatBuild[] builds;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new String[capacity];
+            builds = new CachingCatBuild[capacity];
+            mask = capacity - 1;
+        }
+
+        CachingCatBuild find(String key) {
+            for (int i = hash(key) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (keys[i].length() == key.length() && keys[i].regionMatches(true, 0, key, 0, key.length())) {
+                    return builds[i];
+                }
+            }
+            return null;
+        }
+
+        void put(String key, CachingCatBuild build) {
+            int i = hash(key) & mask;
+            while (keys[i] != null && !keys[i].equalsIgnoreCase(key)) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            builds[i] = build;
+        }
+    }
+
+    private static volatile Table table = new Table(8);
+    private static int size;
+
+    static {
+        register("Munchkin", new MunchkinBuild(), Munchkin.class);
+        register("AmericanSharthaie", new AmericanSharthaieBuild(), AmericanSharthaie.class);
+        register("Ragdoll", new RagdollBuild(), Ragdoll.class);
+    }
+
+    // 运行时注册新的工厂，复用策略根据产品类是否有状态自动判断。
+    // 为了得到产品类会先调用一次 build.getCat()，SHARED/POOLED 策略下这个实例作为共享实例或池中的第一个实例复用，
+    // 其他策略下被丢弃；已知产品类时可以用 register(key, build, productType) 省掉这次创建
+    public static void register(String key, abstractCatBuild build) {
+        if (build == null) {
+            throw new IllegalArgumentException("build must not be null");
+        }
+        Cat sample = build.getCat();
+        put(key, build, CatPolicy.detect(sample.getClass()), sample.getClass(), sample);
+    }
+
+    // 运行时注册新的工厂，复用策略根据调用方给出的产品类判断，不创建产品
+    public static void register(String key, abstractCatBuild build, Class<? extends Cat> productType) {
+        if (productType == null) {
+            throw new IllegalArgumentException("productType must not be null");
+        }
+        put(key, build, CatPolicy.detect(productType), productType, null);
+    }
+
+    // 运行时注册新的工厂并指定复用策略；已存在的类型名会被覆盖
+    public static void register(String key, abstractCatBuild build, CatPolicy policy) {
+        put(key, build, policy, null, null);
+    }
+
+    private static synchronized void put(String key, abstractCatBuild build, CatPolicy policy,
+                                         Class<?> productType, Cat sample) {
+        if (key == null || build == null || policy == null) {
+            throw new IllegalArgumentException("key, build and policy must not be null");
+        }
+        Table current = table;
+        boolean exists = current.find(key) != null;
+        int newSize = exists ? size : size + 1;
+        int capacity = current.keys.length;
+        while (capacity < newSize * 2) {
+            capacity <<= 1;
+        }
+        Table next = new Table(capacity);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != null) {
+                next.put(current.keys[i], current.builds[i]);
+            }
+        }
+        next.put(key, new CachingCatBuild(build, policy, productType, sample));
+        size = newSize;
+        table = next;
+    }
+
+    public static Cat getCat(String key) {
+        if (key == null) {
+            return null;
+        }
+        CachingCatBuild build = table.find(key);
+        return build == null ? null : build.getCat();
+    }
+
+    // 归还 POOLED 策略下取得的产品，其他策略下忽略；产品类与该类型名的工厂不符时抛出 IllegalArgumentException
+    public static void release(String key, Cat cat) {
+        CachingCatBuild build = key == null ? null : table.find(key);
+        if (build != null) {
+            build.release(cat);
+        }
+    }
+
+    public static synchronized String stats() {
+        StringBuilder sb = new StringBuilder();
+        Table current = table;
+        for (int i = 0; i < current.keys.length; i++) {
+            CachingCatBuild build = current.builds[i];
+            if (build != null) {
+                sb.append(current.keys[i]).append(" [").append(build.policy())
+                        .append("] allocations : ").append(build.allocations())
+                        .append(", avoided : ").append(build.allocationsAvoided()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    // 不区分大小写的字符串哈希，逐字符计算而不生成小写副本。
+    // 折叠方式与 regionMatches(true)/equalsIgnoreCase 一致（先转大写再转小写），
+    // 否则像 'ı' 与 'I' 这样被判为相等的字符会落到不同的槽位
+    private static int hash(String key) {
+        int h = 0;
+        for (int i = 0; i < key.length(); i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(key.charAt(i)));
+        }
+        return h ^ (h >>> 16);
+    }
+}
+
 public class factory {
     public static void main(String[] args){
 
@@ -93,6 +349,10 @@ public class factory {
 
         Cat cat3 = (new RagdollBuild()).getCat();
         cat3.Meow();
+
+        CatRegistry.getCat("munchkin").Meow();
+        CatRegistry.getCat("MUNCHKIN");
+        System.out.print(CatRegistry.stats());
     }
 }
 
@@ -101,5 +361,6 @@ public class factory {
  * Munchkin meows!
  * AmericanSharthaie meows!
  * Ragdoll meows!
+ * Munchkin meows!
 
 */
@@ -32,31 +32,54 @@
  * 情景二：需要维持一些特定的状态，此时更适合使用单例模式。
  */
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// 各种实现共同的访问接口，便于在同一处比较和替换
+interface Singleton {
+    void showMessage();
+}
+
 // 1. 懒汉式
-class singleton {
+class LazySingleton implements Singleton {
     /**
      * 不支持多线程。因为没有加锁 synchronized, 不要求线程安全，在多线程不能正常工作。
      * 是否 Lazy 初始化：是
      */
-    private static singleton instance;
+    private static LazySingleton instance;
     //  让构造函数为 private，这样该类就不会被实例化
-    private singleton (){}
+    private LazySingleton (){}
 
     //  获取唯一可用的对象
-    public static singleton getInstance() {
+    public static LazySingleton getInstance() {
         if (instance == null) {
-            instance = new singleton();
+            instance = new LazySingleton();
         }
         return instance;
     }
 
+    @Override
     public void showMessage(){
         System.out.println("This is a singleton instance!");
     }
 }
 
 // 2. 懒汉式，线程安全
-class singleton {
+class SynchronizedSingleton implements Singleton {
     /**
      * 是否 Lazy 初始化：是
      * 优点：第一次调用才初始化，避免内存浪费。
@@ -66,25 +89,26 @@ class singleton {
      * 那么此时就不再满足单例模式的要求了， 因为多线程访问出的问题，加锁使得线程同步；
      * 会导致很大的性能开销，并且加锁其实只需要在第一次初始化的时候用到，之后的调用都没必要再进行加锁。
      */
-    private static singleton instance;
+    private static SynchronizedSingleton instance;
     //  让构造函数为 private，这样该类就不会被实例化
-    private singleton (){}
+    private SynchronizedSingleton (){}
 
     //  获取唯一可用的对象
-    public static synchronized singleton getInstance() {
+    public static synchronized SynchronizedSingleton getInstance() {
         if (instance == null) {
-            instance = new singleton();
+            instance = new SynchronizedSingleton();
         }
         return instance;
     }
 
+    @Override
     public void showMessage(){
         System.out.println("This is a singleton instance!");
     }
 }
 
 // 3. 饿汉式 线程安全
-class singleton {
+class EagerSingleton implements Singleton {
      /**
      * 是否 Lazy 初始化：否
      * 优点：没有加锁，执行效率会提高。
@@ -92,22 +116,23 @@ class singleton {
      * 饿汉式在类加载的过程中就会创建一个本类的静态对象，所以它的加载过程比懒汉式慢，
      * 但是获得类实例的过程比懒汉式快，并且它在多线程模式下比较安全,因为对象在使用前就已经创建出来了。
      */
-    private static singleton instance = new singleton();
+    private static EagerSingleton instance = new EagerSingleton();
     //  让构造函数为 private，这样该类就不会被实例化
-    private singleton (){}
+    private EagerSingleton (){}
 
     //  获取唯一可用的对象
-    public static singleton getInstance() {
+    public static EagerSingleton getInstance() {
         return instance;
     }
 
+    @Override
     public void showMessage(){
         System.out.println("This is a singleton instance!");
     }
 }
 
 // 4. 双检锁/双重校验锁（DCL，即 double-checked locking）
-class singleton {
+class DclSingleton implements Singleton {
     /**
      * Volatile 变量具有 synchronized 的可见性特性，但是不具备原子特性。这就是说线程能够自动发现 volatile 变量的最新值。
      * volatile的作用是作为指令关键字，确保本条指令不会因编译器的优化而省略，且要求每次直接读值。
@@ -116,39 +141,40 @@ class singleton {
      */
     
     // 加入关键字volatile。使用了volatile关键字后，重排序被禁止，所有的写（write）操作都将发生在读（read）操作之前。针对于key那一行
-    private volatile static singleton singleton;
-    private singleton (){}
+    private volatile static DclSingleton instance;
+    private DclSingleton (){}
 
-    public static singleton getInstance() {
+    public static DclSingleton getInstance() {
         /**
          * 执行双重检查是因为，如果多个线程同时了通过了第一次检查，并且其中一个线程首先通
          * 过了第二次检查并实例化了对象，那么剩余通过了第一次检查的线程就不会再去实例化对象。
          * 这样，除了初始化的时候会出现加锁的情况，后续的所有调用都会避免加锁而直接返回，
          * 解决了性能消耗的问题。
          */
-        if (singleton == null) {
-            synchronized (singleton.class) {
-                if (singleton == null) {
+        if (instance == null) {
+            synchronized (DclSingleton.class) {
+                if (instance == null) {
                     /**
                      * 此句实际上可以分解成以下三个步骤：         
                      * 1. 分配内存空间 2. 初始化对象 3. 将对象指向刚分配的内存空间
                      * 但是有些编译器为了性能的原因，可能会将第二步和第三步进行重排序，顺序就成了：               
                      * 1. 分配内存空间 2. 将对象指向刚分配的内存空间 3. 初始化对象
                      */
-                    singleton = new singleton(); // key
+                    instance = new DclSingleton(); // key
                 }
             }
         }
-        return singleton;
+        return instance;
     }
 
+    @Override
     public void showMessage(){
         System.out.println("This is a singleton instance!");
     }
 }
 
 // 5、登记式/静态内部类
-class singleton {
+class HolderSingleton implements Singleton {
     /**
      * 是否 Lazy 初始化：是
      * 是否多线程安全：是
@@ -161,27 +187,559 @@ class singleton {
      * 很消耗资源，所以想让它延迟加载，另外一方面，又不希望在 Singleton 类加载时就实例化，
      * 因为不能确保 Singleton 类还可能在其他的地方被主动使用从而被加载，那么这个时候实例化 instance 显然是不合适的。
      */
-    private static class singletonHolder {
-        private static final singleton INSTANCE = new singleton();
+    private static class Holder {
+        private static final HolderSingleton INSTANCE = new HolderSingleton();
+    }
+
+    private HolderSingleton (){}
+    public static final HolderSingleton getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    @Override
+    public void showMessage(){
+        System.out.println("This is a singleton instance!");
     }
+}
 
-    private singleton (){}
-    public static final singleton getInstance() {
-        return singletonHolder.INSTANCE;
+// 6. 枚举
+enum EnumSingleton implements Singleton {
+    /**
+     * 是否 Lazy 初始化：否（枚举类首次被使用时初始化）
+     * 是否多线程安全：是
+     * 由 JVM 保证只有一个实例，天然防止反射和反序列化破坏单例。
+     */
+    INSTANCE;
+
+    public static EnumSingleton getInstance() {
+        return INSTANCE;
     }
 
+    @Override
     public void showMessage(){
         System.out.println("This is a singleton instance!");
     }
 }
 
-// public class SingletonPatternDemo {
-//     public static void main(String[] args) {
+/**
+ * 基于 VarHandle 的延迟初始化单元：读用 acquire，写用 release，
+ * 与 volatile 相比省去了全屏障，且保证读到引用的线程一定能看到构造完成后的全部字段。
+ */
+final class AcquireReleaseLazy<T> {
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(AcquireReleaseLazy.class, "value", Object.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Supplier<T> factory;
+    private Object value;
+
+    AcquireReleaseLazy(Supplier<T> factory) {
+        this.factory = factory;
+    }
 
-//         //获取唯一可用的对象
-//         singleton object = singleton.getInstance();
+    @SuppressWarnings("unchecked")
+    T get() {
+        Object current = VALUE.getAcquire(this);
+        if (current == null) {
+            synchronized (this) {
+                current = value;
+                if (current == null) {
+                    current = factory.get();
+                    VALUE.setRelease(this, current);
+                }
+            }
+        }
+        return (T) current;
+    }
+}
+
+// 7. VarHandle acquire/release 双检锁
+class VarHandleSingleton implements Singleton {
+    /**
+     * 是否 Lazy 初始化：是
+     * 是否多线程安全：是
+     * 与双检锁相同的结构，但快路径只需一次 acquire 读，而不是 volatile 读。
+     */
+    private static final AcquireReleaseLazy<VarHandleSingleton> INSTANCE =
+            new AcquireReleaseLazy<>(VarHandleSingleton::new);
+
+    private VarHandleSingleton (){}
+
+    public static VarHandleSingleton getInstance() {
+        return INSTANCE.get();
+    }
+
+    @Override
+    public void showMessage(){
+        System.out.println("This is a singleton instance!");
+    }
+}
+
+// 8. static final 常量
+class ConstantSingleton implements Singleton {
+    /**
+     * 是否 Lazy 初始化：否
+     * 是否多线程安全：是
+     * 与饿汉式相同，但字段为 static final，JIT 可以把 getInstance() 直接折叠为常量。
+     */
+    private static final ConstantSingleton INSTANCE = new ConstantSingleton();
 
-//         //显示消息
-//         object.showMessage();
-//     }
-// }
+    private ConstantSingleton (){}
+
+    public static ConstantSingleton getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void showMessage(){
+        System.out.println("This is a singleton instance!");
+    }
+}
+
+// 有状态实例的作用域
+enum Scope {
+    // 全进程共享一个实例，等同于普通单例
+    GLOBAL,
+    // 每个线程一个实例
+    THREAD,
+    // 按处理器数量分片，线程按首次访问的顺序轮流分配到各个分片上，同一分片内共享。
+    // 同时运行的多个线程可能拿到同一个实例，因此实例必须是线程安全的；分片只用于分散竞争，
+    // 需要线程独占的实例请使用 THREAD
+    CARRIER,
+    // 在 beginRequest/endRequest 之间有效，每个请求一个实例
+    REQUEST
+}
+
+/**
+ * 作用域实例注册表：对于持有可变状态的服务（例如 DAO 层的 sessionFactory），单个全局实例会成为竞争点，
+ * 这里允许按线程、按分片或按请求划分实例。实例在首次 get 时才创建，作用域结束时调用注册的销毁回调。
+ */
+class ScopedRegistry {
+
+    private static final class Definition<T> {
+        final Scope scope;
+        final Supplier<T> factory;
+        final Consumer<? super T> teardown;
+        final AtomicReferenceArray<Object> stripes;
+
+        Definition(Scope scope, Supplier<T> factory, Consumer<? super T> teardown, int stripeCount) {
+            this.scope = scope;
+            this.factory = factory;
+            this.teardown = teardown;
+            this.stripes = scope == Scope.CARRIER ? new AtomicReferenceArray<>(stripeCount) : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        void destroy(Object instance) {
+            if (instance != null && teardown != null) {
+                ((Consumer<Object>) teardown).accept(instance);
+            }
+        }
+    }
+
+    private final int stripeCount = Runtime.getRuntime().availableProcessors();
+    // 按线程首次访问的顺序轮流分配分片，避免线程 id 取模带来的不均衡
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    private final ThreadLocal<Integer> threadStripe =
+            ThreadLocal.withInitial(() -> Math.floorMod(nextStripe.getAndIncrement(), stripeCount));
+    private final Map<String, Definition<?>> definitions = new ConcurrentHashMap<>();
+    private final Map<String, Object> globals = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<String, Object>> threadInstances = ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<Map<String, Object>> requestInstances = new ThreadLocal<>();
+    // 当前线程正在创建的定义，用于发现工厂之间的循环依赖
+    private final ThreadLocal<Set<String>> creating = ThreadLocal.withInitial(HashSet::new);
+
+    public <T> void define(String name, Scope scope, Supplier<T> factory, Consumer<? super T> teardown) {
+        if (definitions.putIfAbsent(name, new Definition<>(scope, factory, teardown, stripeCount)) != null) {
+            throw new IllegalStateException("already defined: " + name);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name) {
+        Definition<T> definition = (Definition<T>) definitions.get(name);
+        if (definition == null) {
+            throw new IllegalArgumentException("undefined: " + name);
+        }
+        // 工厂可能再去 get 其他作用域实例，因此实例都在映射表之外创建，不能放进 computeIfAbsent
+        switch (definition.scope) {
+            case GLOBAL:
+                return globalInstance(name, definition);
+            case THREAD:
+                return localInstance(name, definition, threadInstances.get());
+            case CARRIER:
+                return carrierInstance(name, definition);
+            case REQUEST:
+                Map<String, Object> request = requestInstances.get();
+                if (request == null) {
+                    throw new IllegalStateException("no active request for " + name);
+                }
+                return localInstance(name, definition, request);
+            default:
+                throw new AssertionError(definition.scope);
+        }
+    }
+
+    public void beginRequest() {
+        if (requestInstances.get() != null) {
+            throw new IllegalStateException("request already active");
+        }
+        requestInstances.set(new HashMap<>());
+    }
+
+    public void endRequest() {
+        Map<String, Object> request = requestInstances.get();
+        requestInstances.remove();
+        if (request != null) {
+            destroyAll(request);
+        }
+    }
+
+    // 线程退出前调用，销毁该线程的实例
+    public void endThread() {
+        Map<String, Object> instances = threadInstances.get();
+        threadInstances.remove();
+        destroyAll(instances);
+    }
+
+    // 销毁全局与分片实例，线程和请求作用域由各自的结束方法负责
+    public void shutdown() {
+        RuntimeException failure = null;
+        for (Map.Entry<String, Definition<?>> entry : definitions.entrySet()) {
+            Definition<?> definition = entry.getValue();
+            if (definition.scope == Scope.GLOBAL) {
+                failure = destroy(definition, globals.remove(entry.getKey()), failure);
+            } else if (definition.scope == Scope.CARRIER) {
+                for (int i = 0; i < stripeCount; i++) {
+                    failure = destroy(definition, definition.stripes.getAndSet(i, null), failure);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // 按定义加锁创建，保证全局实例只创建一次；不同定义互不阻塞
+    @SuppressWarnings("unchecked")
+    private <T> T globalInstance(String name, Definition<T> definition) {
+        Object instance = globals.get(name);
+        if (instance == null) {
+            synchronized (definition) {
+                instance = globals.get(name);
+                if (instance == null) {
+                    instance = create(name, definition);
+                    globals.put(name, instance);
+                }
+            }
+        }
+        return (T) instance;
+    }
+
+    // 线程和请求作用域的映射表只由当前线程访问，无需加锁
+    @SuppressWarnings("unchecked")
+    private <T> T localInstance(String name, Definition<T> definition, Map<String, Object> instances) {
+        Object instance = instances.get(name);
+        if (instance == null) {
+            instance = create(name, definition);
+            instances.put(name, instance);
+        }
+        return (T) instance;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T carrierInstance(String name, Definition<T> definition) {
+        int stripe = threadStripe.get();
+        Object instance = definition.stripes.get(stripe);
+        if (instance == null) {
+            synchronized (definition) {
+                instance = definition.stripes.get(stripe);
+                if (instance == null) {
+                    instance = create(name, definition);
+                    definition.stripes.set(stripe, instance);
+                }
+            }
+        }
+        return (T) instance;
+    }
+
+    private <T> T create(String name, Definition<T> definition) {
+        Set<String> inProgress = creating.get();
+        if (!inProgress.add(name)) {
+            throw new IllegalStateException("circular dependency on " + name);
+        }
+        try {
+            T instance = definition.factory.get();
+            if (instance == null) {
+                throw new IllegalStateException("factory returned null for " + name);
+            }
+            return instance;
+        } finally {
+            inProgress.remove(name);
+        }
+    }
+
+    // 某个销毁回调失败时继续销毁其余实例，最后抛出第一个异常，其余的作为 suppressed 附在上面
+    private void destroyAll(Map<String, Object> instances) {
+        RuntimeException failure = null;
+        for (Map.Entry<String, Object> entry : instances.entrySet()) {
+            failure = destroy(definitions.get(entry.getKey()), entry.getValue(), failure);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static RuntimeException destroy(Definition<?> definition, Object instance, RuntimeException failure) {
+        try {
+            definition.destroy(instance);
+        } catch (RuntimeException e) {
+            if (failure == null) {
+                return e;
+            }
+            failure.addSuppressed(e);
+        }
+        return failure;
+    }
+}
+
+/**
+ * 安全发布的压力测试：每一轮新建一个延迟初始化单元，让多个线程同时首次访问，
+ * 检查所有线程拿到的是同一个实例，且实例的字段都已构造完成（非 final 字段，不受 final 语义保护）。
+ */
+class SingletonStressTest {
+
+    private static class Payload {
+        int a;
+        long b;
+        int[] c;
+
+        Payload() {
+            a = 1;
+            b = 2L;
+            c = new int[] {3};
+        }
+
+        boolean complete() {
+            return a == 1 && b == 2L && c != null && c[0] == 3;
+        }
+    }
+
+    static void run(int trials, int threads) throws InterruptedException {
+        int failures = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            AcquireReleaseLazy<Payload> lazy = new AcquireReleaseLazy<>(Payload::new);
+            Payload[] seen = new Payload[threads];
+            boolean[] complete = new boolean[threads];
+            CyclicBarrier barrier = new CyclicBarrier(threads);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final int index = t;
+                workers[t] = new Thread(() -> {
+                    try {
+                        barrier.await();
+                    } catch (InterruptedException | BrokenBarrierException e) {
+                        return;
+                    }
+                    Payload payload = lazy.get();
+                    seen[index] = payload;
+                    complete[index] = payload.complete();
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            for (int t = 0; t < threads; t++) {
+                if (seen[t] != seen[0] || !complete[t]) {
+                    failures++;
+                    break;
+                }
+            }
+        }
+        System.out.println("stress trials : " + trials + ", threads : " + threads + ", failures : " + failures);
+    }
+}
+
+/**
+ * 比较各种实现的简易基准：首次访问延迟，以及 1..N 个线程并发调用 getInstance() 的吞吐量。
+ * 每种实现单独一个循环体，使循环内的调用点保持单态，避免测到的是接口分派的开销。
+ */
+class SingletonBenchmark {
+
+    private static final long WARMUP_MILLIS = 200;
+    private static final long MEASURE_MILLIS = 500;
+
+    // 执行 iterations 次 getInstance()，返回值用于防止调用被优化掉
+    private abstract static class Loop {
+        final String name;
+
+        Loop(String name) {
+            this.name = name;
+        }
+
+        abstract int run(int iterations);
+    }
+
+    private static final Loop[] LOOPS = {
+        new Loop("lazy") {
+            int run(int iterations) {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sink += System.identityHashCode(LazySingleton.getInstance()) & 1;
+                }
+                return sink;
+            }
+        },
+        new Loop("synchronized") {
+            int run(int iterations) {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sink += System.identityHashCode(SynchronizedSingleton.getInstance()) & 1;
+                }
+                return sink;
+            }
+        },
+        new Loop("eager") {
+            int run(int iterations) {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sink += System.identityHashCode(EagerSingleton.getInstance()) & 1;
+                }
+                return sink;
+            }
+        },
+        new Loop("dcl") {
+            int run(int iterations) {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sink += System.identityHashCode(DclSingleton.getInstance()) & 1;
+                }
+                return sink;
+            }
+        },
+        new Loop("holder") {
+            int run(int iterations) {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sink += System.identityHashCode(HolderSingleton.getInstance()) & 1;
+                }
+                return sink;
+            }
+        },
+        new Loop("enum") {
+            int run(int iterations) {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sink += System.identityHashCode(EnumSingleton.getInstance()) & 1;
+                }
+                return sink;
+            }
+        },
+        new Loop("varhandle") {
+            int run(int iterations) {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sink += System.identityHashCode(VarHandleSingleton.getInstance()) & 1;
+                }
+                return sink;
+            }
+        },
+        new Loop("constant") {
+            int run(int iterations) {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sink += System.identityHashCode(ConstantSingleton.getInstance()) & 1;
+                }
+                return sink;
+            }
+        },
+    };
+
+    private static volatile int blackhole;
+
+    // 首次访问包含类加载与实例化，必须在任何其他调用之前测量
+    static void firstAccess() {
+        for (Loop loop : LOOPS) {
+            long start = System.nanoTime();
+            blackhole += loop.run(1);
+            System.out.printf("%-13s first access : %8d ns%n", loop.name, System.nanoTime() - start);
+        }
+    }
+
+    static void throughput(int maxThreads) throws InterruptedException {
+        for (Loop loop : LOOPS) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                measure(loop, threads, WARMUP_MILLIS);
+                long ops = measure(loop, threads, MEASURE_MILLIS);
+                System.out.printf("%-13s threads : %2d, %8.1f Mops/s%n",
+                        loop.name, threads, ops / (MEASURE_MILLIS * 1000.0));
+            }
+        }
+    }
+
+    private static long measure(Loop loop, int threads, long millis) throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int sink = 0;
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    sink += loop.run(10_000);
+                    count += 10_000;
+                }
+                ops.add(count);
+                blackhole += sink;
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return ops.sum();
+    }
+}
+
+public class singleton {
+    public static void main(String[] args) throws InterruptedException {
+        SingletonBenchmark.firstAccess();
+
+        //获取唯一可用的对象
+        Singleton object = HolderSingleton.getInstance();
+
+        //显示消息
+        object.showMessage();
+
+        // 按作用域划分有状态实例
+        ScopedRegistry registry = new ScopedRegistry();
+        registry.define("counter", Scope.THREAD, StringBuilder::new,
+                sb -> System.out.println("closing counter : " + sb));
+        registry.define("session", Scope.REQUEST, StringBuilder::new,
+                sb -> System.out.println("closing session : " + sb));
+        registry.<StringBuilder>get("counter").append("thread-main");
+        registry.beginRequest();
+        registry.<StringBuilder>get("session").append("request-1");
+        registry.endRequest();
+        registry.endThread();
+        registry.shutdown();
+
+        SingletonStressTest.run(1000, Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+        SingletonBenchmark.throughput(Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -13,71 +13,614 @@
  * 具体装饰（ConcreteDecorator）角色：实现抽象装饰的相关方法，并给具体构件对象添加附加的责任。
  */
 
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
 //抽象构件
 interface Drink {
     public float cost();
     public String getDescription();
+
+    // 以最小货币单位（分）表示的精确价格，避免 float 累加的舍入误差
+    public default long costMinorUnits() {
+        return Math.round(cost() * 100.0);
+    }
+}
+
+// 价格只由类型决定、与实例状态无关的构件或装饰实现此接口，DrinkBatchPricer 只按结构缓存这类饮料的价格
+interface TypePriced {
 }
 
 //具体构件
-class Coffee implements Drink {
+class Coffee implements Drink, TypePriced {
     final private String description = "coffee";
 
     public float cost() {
         return 10;
     }
 
+    public long costMinorUnits() {
+        return 1000;
+    }
+
     public String getDescription() {
         return description;
     }
 }
 // 抽象装饰
 abstract class CondimentDecorator implements Drink {
-    protected Drink decoratorDrink;
+    /**
+     * 修改时钟：任何装饰链被修改时推进。缓存（SealedDrink、DrinkBatchPricer）记下计算时的时钟值，
+     * 时钟没变时直接使用；时钟变了只说明“某条链”被改过，再沿自己的链检查各层的修改时间，
+     * 自己的链没被改过就把缓存标记为在新时钟下有效，不必重新计算。
+     */
+    private static final AtomicLong chainVersion = new AtomicLong();
+
+    private Drink decoratorDrink;
+    // 本层最近一次被修改时的时钟值，从未修改过为 0
+    private volatile long modifiedAt;
+    // DrinkBatchPricer 在第一次为这条链定价时写入的结果，只由定价器读写，构造时不做任何事
+    volatile Object pricingHint;
 
     public CondimentDecorator(Drink decoratorDrink) {
         this.decoratorDrink = decoratorDrink;
     }
 
-    public float cost() {
-        return decoratorDrink.cost();
+    public Drink getDecoratorDrink() {
+        return decoratorDrink;
     }
 
-    public String getDescription() {
-        return decoratorDrink.getDescription();
+    // 替换被装饰的饮料，包含本层的已封装链会在下次查询时重新计算，其他链的缓存不受影响
+    public void setDecoratorDrink(Drink decoratorDrink) {
+        modifiedAt = chainVersion.incrementAndGet();
+        this.decoratorDrink = decoratorDrink;
+        // 修改完成后再推进一次，并发检查时还没看到这次修改的缓存会在下次查询时再检查一次
+        chainVersion.incrementAndGet();
+    }
+
+    static long chainVersion() {
+        return chainVersion.get();
+    }
+
+    // drink 所在的链（含被封装的内层链）在时钟值 version 时或之后是否被修改过；沿链检查，不分配对象
+    static boolean modifiedSince(Drink drink, long version) {
+        Drink current = drink;
+        while (true) {
+            if (current instanceof SealedDrink) {
+                current = ((SealedDrink) current).unseal();
+            } else if (current instanceof CondimentDecorator) {
+                CondimentDecorator decorator = (CondimentDecorator) current;
+                if (decorator.modifiedAt >= version) {
+                    return true;
+                }
+                current = decorator.decoratorDrink;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    // 本层装饰附加的价格与描述，由具体装饰实现；每次调用须返回相同的结果
+    protected abstract float condimentCost();
+    protected abstract String condimentDescription();
+
+    // 本层装饰附加的价格（分），默认由 condimentCost 换算
+    protected long condimentCostMinorUnits() {
+        return Math.round(condimentCost() * 100.0);
+    }
+
+    // 不超过这个深度的装饰链用递归计算价格，更深的链改用数组，避免占用过多调用栈
+    private static final int RECURSIVE_DEPTH = 16;
+
+    /**
+     * 价格与描述都按“先内层构件、再由内向外逐层累加”的顺序计算，结果与逐层递归相同。
+     * 第一遍沿装饰链向内找到被装饰的构件并统计深度（描述则统计总长度），第二遍再按顺序累加，
+     * 不为装饰链建立列表。float 加法不满足结合律，因此价格必须由内向外累加：
+     * 常见的浅链直接递归，不分配对象；很深的链才分配一个与深度等长的 float 数组。
+     */
+    public final float cost() {
+        int depth = 0;
+        Drink current = this;
+        while (current instanceof CondimentDecorator) {
+            current = ((CondimentDecorator) current).decoratorDrink;
+            depth++;
+        }
+        if (depth <= RECURSIVE_DEPTH) {
+            return costOf(this, depth);
+        }
+        float[] condiments = new float[depth];
+        current = this;
+        for (int i = 0; i < depth; i++) {
+            CondimentDecorator decorator = (CondimentDecorator) current;
+            condiments[i] = decorator.condimentCost();
+            current = decorator.decoratorDrink;
+        }
+        float cost = current.cost();
+        for (int i = depth - 1; i >= 0; i--) {
+            cost += condiments[i];
+        }
+        return cost;
+    }
+
+    // depth 为 drink 以内连续装饰层的数量
+    private static float costOf(Drink drink, int depth) {
+        if (depth == 0) {
+            return drink.cost();
+        }
+        CondimentDecorator decorator = (CondimentDecorator) drink;
+        return costOf(decorator.decoratorDrink, depth - 1) + decorator.condimentCost();
+    }
+
+    // 定点价格，溢出时抛出 ArithmeticException。整数加法满足结合律，直接由外向内累加，不需要第二遍
+    public final long costMinorUnits() {
+        long cost = 0;
+        Drink current = this;
+        while (current instanceof CondimentDecorator) {
+            CondimentDecorator decorator = (CondimentDecorator) current;
+            cost = Math.addExact(cost, decorator.condimentCostMinorUnits());
+            current = decorator.decoratorDrink;
+        }
+        return Math.addExact(cost, current.costMinorUnits());
+    }
+
+    // 第一遍求出总长度，第二遍由外向内把各层描述从后往前填入定长数组
+    public final String getDescription() {
+        int length = 0;
+        Drink current = this;
+        while (current instanceof CondimentDecorator) {
+            CondimentDecorator decorator = (CondimentDecorator) current;
+            length += decorator.condimentDescription().length();
+            current = decorator.decoratorDrink;
+        }
+        String base = current.getDescription();
+        char[] chars = new char[base.length() + length];
+        base.getChars(0, base.length(), chars, 0);
+        int end = chars.length;
+        for (current = this; current instanceof CondimentDecorator; ) {
+            CondimentDecorator decorator = (CondimentDecorator) current;
+            String part = decorator.condimentDescription();
+            end -= part.length();
+            part.getChars(0, part.length(), chars, end);
+            current = decorator.decoratorDrink;
+        }
+        return new String(chars);
     }
 }
 // 具体装饰
-class Milk extends CondimentDecorator {
+class Milk extends CondimentDecorator implements TypePriced {
     
     public Milk(Drink decoratorDrink) {
         super(decoratorDrink);
     }
 
     @Override
-    public float cost() {
-        return super.cost() + 2;
+    protected float condimentCost() {
+        return 2;
     }
 
     @Override
-    public String getDescription() {
-        return super.getDescription() + " milk";
+    protected long condimentCostMinorUnits() {
+        return 200;
+    }
+
+    @Override
+    protected String condimentDescription() {
+        return " milk";
     }
 }
 // 具体装饰
-class Sugar extends CondimentDecorator {
+class Sugar extends CondimentDecorator implements TypePriced {
     public Sugar(Drink decoratorDrink) {
         super(decoratorDrink);
     }
 
     @Override
-    public float cost() {
-        return super.cost() + 1;
+    protected float condimentCost() {
+        return 1;
+    }
+
+    @Override
+    protected long condimentCostMinorUnits() {
+        return 100;
     }
 
     @Override
+    protected String condimentDescription() {
+        return " sugar";
+    }
+}
+
+/**
+ * 封装后的装饰链：价格和描述只计算一次并缓存，之后每次查询都是常数时间，
+ * 不再逐层调用被装饰对象。所封装的装饰链被修改后缓存失效（其他链的修改只触发一次沿链检查），下次查询时重新计算。
+ */
+final class SealedDrink implements Drink {
+    private final Drink source;
+    private volatile Snapshot snapshot;
+
+    private static final class Snapshot {
+        final long version;
+        final float cost;
+        final long costMinorUnits;
+        final String description;
+        // 最近一次确认快照仍然有效时的时钟值
+        volatile long checkedAt;
+
+        Snapshot(long version, float cost, long costMinorUnits, String description) {
+            this.version = version;
+            this.cost = cost;
+            this.costMinorUnits = costMinorUnits;
+            this.description = description;
+            this.checkedAt = version;
+        }
+    }
+
+    private SealedDrink(Drink source) {
+        this.source = source;
+    }
+
+    public static SealedDrink seal(Drink drink) {
+        if (drink instanceof SealedDrink) {
+            return (SealedDrink) drink;
+        }
+        return new SealedDrink(drink);
+    }
+
+    public Drink unseal() {
+        return source;
+    }
+
+    public float cost() {
+        return current().cost;
+    }
+
+    public long costMinorUnits() {
+        return current().costMinorUnits;
+    }
+
     public String getDescription() {
-        return super.getDescription() + " sugar";
+        return current().description;
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        long version = CondimentDecorator.chainVersion();
+        if (s != null) {
+            if (s.checkedAt == version) {
+                return s;
+            }
+            if (!CondimentDecorator.modifiedSince(source, s.version)) {
+                s.checkedAt = version;
+                return s;
+            }
+        }
+        s = new Snapshot(version, source.cost(), source.costMinorUnits(), source.getDescription());
+        snapshot = s;
+        return s;
+    }
+}
+
+/**
+ * 定点价格的批量汇总：先把每杯饮料的价格取到 long 数组，再求和。
+ * 求和循环里只有两个互不依赖的归约（求和与按位或出加数的量级），没有依赖中间和的溢出判断，
+ * JIT 可以展开并（在支持的平台上）向量化；循环结束后由 数量 × 最大量级 判断是否可能溢出，
+ * 极少数可能溢出的输入才退回逐个 addExact 重新求和。
+ */
+class DrinkTotals {
+
+    public static long totalMinorUnits(Drink[] drinks) {
+        long[] prices = new long[drinks.length];
+        for (int i = 0; i < drinks.length; i++) {
+            prices[i] = drinks[i].costMinorUnits();
+        }
+        return sum(prices, 0, prices.length);
+    }
+
+    public static long sum(long[] prices, int from, int to) {
+        int count = to - from;
+        if (count <= 0) {
+            return 0;
+        }
+        long total = 0;
+        long magnitudes = 0;
+        for (int i = from; i < to; i++) {
+            long price = prices[i];
+            total += price;
+            // 对非负数是它本身，对负数是 |price| - 1；按位或之后不小于每个加数的绝对值减一
+            magnitudes |= price ^ (price >> 63);
+        }
+        // count < 2^bits，每个加数的绝对值不超过 2^(63 - bits) 时，count 个加数之和的绝对值小于 2^63
+        int bits = 32 - Integer.numberOfLeadingZeros(count);
+        if ((magnitudes >>> (63 - bits)) == 0) {
+            return total;
+        }
+        total = 0;
+        for (int i = from; i < to; i++) {
+            total = Math.addExact(total, prices[i]);
+        }
+        return total;
+    }
+
+    public static String format(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, 2).toPlainString();
+    }
+}
+
+/**
+ * 批量定价：把结构相同的装饰链（构件类型相同、各层装饰类型与顺序相同）合并到同一个结构树的叶子上，
+ * 每种结构的价格只计算一次。定价时由外向内沿链在树上逐层下行，每层只比较类型，不分配对象，
+ * 也不调用各层的价格方法；装饰链被修改后按新的结构定价，不需要失效处理。
+ * SealedDrink 只是缓存，不改变结构，定价时先拆封再按其内部的链处理。
+ * 只有每一层都实现了 TypePriced 的链才会缓存，其他饮料直接调用 costMinorUnits()。
+ * 结构树属于定价器实例，节点数超过上限后新的结构不再缓存，可以调用 clear() 清空。
+ * 为了让重复定价的订单是常数时间，定价结果还会记在订单最外层的装饰上（pricingHint），
+ * 订单自己的链被修改或结构树被清空后失效；多个定价器交替为同一批订单定价时会互相覆盖。
+ */
+class DrinkBatchPricer {
+
+    static final int DEFAULT_MAX_NODES = 1 << 16;
+
+    // 结构树节点：子节点按下一层（更内层）的类型索引；到达构件的叶子节点保存整条链的价格
+    private static final class Node {
+        final boolean leaf;
+        final long priceMinorUnits;
+        private volatile Children children = Children.EMPTY;
+        // 最近一次出现在哪一批订单中，用于统计单批的不同结构数
+        long lastBatch;
+
+        Node(boolean leaf, long priceMinorUnits) {
+            this.leaf = leaf;
+            this.priceMinorUnits = priceMinorUnits;
+        }
+
+        Node child(Class<?> type) {
+            Children current = children;
+            for (int i = 0; i < current.types.length; i++) {
+                if (current.types[i] == type) {
+                    return current.nodes[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    // 记在订单上的定价结果：root 用于识别定价器与清空，version 为定价前读取的修改时钟
+    private static final class CachedLeaf {
+        final Node root;
+        final Node leaf;
+        final long version;
+        volatile long checkedAt;
+
+        CachedLeaf(Node root, Node leaf, long version) {
+            this.root = root;
+            this.leaf = leaf;
+            this.version = version;
+            this.checkedAt = version;
+        }
+    }
+
+    // 子节点表在插入时整体替换，读取时不加锁
+    private static final class Children {
+        static final Children EMPTY = new Children(new Class<?>[0], new Node[0]);
+
+        final Class<?>[] types;
+        final Node[] nodes;
+
+        Children(Class<?>[] types, Node[] nodes) {
+            this.types = types;
+            this.nodes = nodes;
+        }
+    }
+
+    private final int maxNodes;
+    private volatile Node root = new Node(false, 0);
+    private final AtomicInteger nodes = new AtomicInteger();
+    private final AtomicInteger chains = new AtomicInteger();
+    private long batches;
+    private int lastBatchChains;
+
+    private final LongAdder orders = new LongAdder();
+    private final LongAdder uncached = new LongAdder();
+    private final LongAdder pricingNanos = new LongAdder();
+
+    public DrinkBatchPricer() {
+        this(DEFAULT_MAX_NODES);
+    }
+
+    public DrinkBatchPricer(int maxNodes) {
+        if (maxNodes <= 0) {
+            throw new IllegalArgumentException("maxNodes must be positive: " + maxNodes);
+        }
+        this.maxNodes = maxNodes;
+    }
+
+    // 返回每笔订单的价格（分），并计入吞吐统计
+    public synchronized long[] price(Drink[] batch) {
+        long start = System.nanoTime();
+        long batchId = ++batches;
+        int distinct = 0;
+        long[] prices = new long[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            Node leaf = cachedLeaf(batch[i]);
+            if (leaf == null) {
+                uncached.increment();
+                prices[i] = batch[i].costMinorUnits();
+                continue;
+            }
+            if (leaf.lastBatch != batchId) {
+                leaf.lastBatch = batchId;
+                distinct++;
+            }
+            prices[i] = leaf.priceMinorUnits;
+        }
+        lastBatchChains = distinct;
+        pricingNanos.add(System.nanoTime() - start);
+        orders.add(batch.length);
+        return prices;
+    }
+
+    public long total(Drink[] batch) {
+        long[] prices = price(batch);
+        return DrinkTotals.sum(prices, 0, prices.length);
+    }
+
+    // 本定价器缓存过的不同结构数（自上次 clear 起）
+    public int distinctChains() {
+        return chains.get();
+    }
+
+    // 最近一批订单中出现的不同结构数，不含未缓存的订单
+    public synchronized int lastBatchDistinctChains() {
+        return lastBatchChains;
+    }
+
+    // 清空结构树；之后每种结构在第一次出现时重新定价
+    public synchronized void clear() {
+        root = new Node(false, 0);
+        nodes.set(0);
+        chains.set(0);
+    }
+
+    public String stats() {
+        long count = orders.sum();
+        long nanos = pricingNanos.sum();
+        double throughput = nanos == 0 ? 0 : count * 1e9 / nanos;
+        return String.format("orders : %d, uncached : %d, distinct chains : %d, nodes : %d, throughput : %.0f orders/s",
+                count, uncached.sum(), chains.get(), nodes.get(), throughput);
+    }
+
+    private Node cachedLeaf(Drink order) {
+        Drink outer = unwrap(order);
+        if (!(outer instanceof CondimentDecorator)) {
+            return leaf(root, outer);
+        }
+        CondimentDecorator decorator = (CondimentDecorator) outer;
+        Node currentRoot = root;
+        long version = CondimentDecorator.chainVersion();
+        Object hint = decorator.pricingHint;
+        if (hint instanceof CachedLeaf) {
+            CachedLeaf cached = (CachedLeaf) hint;
+            if (cached.root == currentRoot) {
+                if (cached.checkedAt == version) {
+                    return cached.leaf;
+                }
+                // 时钟变了，但只要这条链没被改过，结果仍然有效
+                if (!CondimentDecorator.modifiedSince(decorator, cached.version)) {
+                    cached.checkedAt = version;
+                    return cached.leaf;
+                }
+            }
+        }
+        Node leaf = leaf(currentRoot, outer);
+        if (leaf != null) {
+            decorator.pricingHint = new CachedLeaf(currentRoot, leaf, version);
+        }
+        return leaf;
+    }
+
+    // 由外向内沿结构树下行，返回该结构的叶子；链中有未实现 TypePriced 的层或结构树已满时返回 null。
+    // 树中只有 TypePriced 的类型，命中时不需要再检查类型
+    private Node leaf(Node node, Drink order) {
+        Drink current = unwrap(order);
+        while (current != null) {
+            Node next = node.child(current.getClass());
+            if (next == null) {
+                if (!(current instanceof TypePriced)) {
+                    return null;
+                }
+                next = insert(node, current, order);
+                if (next == null) {
+                    return null;
+                }
+            }
+            if (next.leaf) {
+                return next;
+            }
+            node = next;
+            current = unwrap(((CondimentDecorator) current).getDecoratorDrink());
+        }
+        return null;
+    }
+
+    // 插入 layer 对应的子节点；layer 是构件时新节点为叶子，价格取整笔订单的 costMinorUnits()
+    private Node insert(Node parent, Drink layer, Drink order) {
+        synchronized (parent) {
+            Node existing = parent.child(layer.getClass());
+            if (existing != null) {
+                return existing;
+            }
+            if (nodes.get() >= maxNodes) {
+                return null;
+            }
+            boolean leaf = !(layer instanceof CondimentDecorator);
+            Node node = new Node(leaf, leaf ? order.costMinorUnits() : 0);
+            Children current = parent.children;
+            int n = current.types.length;
+            Class<?>[] types = Arrays.copyOf(current.types, n + 1);
+            Node[] children = Arrays.copyOf(current.nodes, n + 1);
+            types[n] = layer.getClass();
+            children[n] = node;
+            parent.children = new Children(types, children);
+            nodes.incrementAndGet();
+            if (leaf) {
+                chains.incrementAndGet();
+            }
+            return node;
+        }
+    }
+
+    private static Drink unwrap(Drink drink) {
+        while (drink instanceof SealedDrink) {
+            drink = ((SealedDrink) drink).unseal();
+        }
+        return drink;
+    }
+}
+
+/**
+ * 定价方式的简易对比：逐单调用 costMinorUnits()（沿链逐层累加价格）与 DrinkBatchPricer。
+ * 订单预先构造好并反复定价，定价器第一轮之后直接取记在订单上的结果；
+ * 只定价一次的订单仍需沿结构树走完整条链。
+ */
+class DrinkPricingBenchmark {
+
+    private static volatile long blackhole;
+
+    // 交替运行若干轮，只报告最后一轮
+    static void run(int depth, long millis, int rounds) {
+        Drink[] batch = new Drink[4096];
+        for (int i = 0; i < batch.length; i++) {
+            Drink drink = new Coffee();
+            for (int layer = 0; layer < depth; layer++) {
+                drink = ((i >> layer) & 1) == 0 ? new Milk(drink) : new Sugar(drink);
+            }
+            batch[i] = drink;
+        }
+        DrinkBatchPricer pricer = new DrinkBatchPricer();
+        double perOrder = 0;
+        double batched = 0;
+        for (int round = 0; round < rounds; round++) {
+            perOrder = measure(() -> DrinkTotals.totalMinorUnits(batch), batch.length, millis);
+            batched = measure(() -> pricer.total(batch), batch.length, millis);
+        }
+        System.out.printf("depth %2d  cost per order : %5.1f ns/order, batch pricer : %5.1f ns/order%n",
+                depth, perOrder, batched);
+    }
+
+    private static double measure(LongSupplier total, int ordersPerCall, long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long calls = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() < deadline) {
+            blackhole = total.getAsLong();
+            calls++;
+        }
+        return (double) (System.nanoTime() - start) / (calls * ordersPerCall);
     }
 }
 
@@ -95,5 +638,19 @@ public class DecoratorDemo {
         //再加一份糖
         drink = new Sugar(drink);
         System.out.println(drink.getDescription() + ":" + drink.cost());
+        //封装装饰链，之后的查询直接使用缓存结果
+        Drink sealed = SealedDrink.seal(drink);
+        System.out.println(sealed.getDescription() + ":" + sealed.cost());
+        //定点价格汇总
+        System.out.println("total:" + DrinkTotals.format(DrinkTotals.totalMinorUnits(new Drink[] {drink, sealed})));
+        //批量定价，结构相同的装饰链只计算一次
+        DrinkBatchPricer pricer = new DrinkBatchPricer();
+        Drink[] batch = {drink, new Sugar(new Sugar(new Milk(new Coffee()))), new Milk(new Coffee())};
+        System.out.println("batch total:" + DrinkTotals.format(pricer.total(batch))
+                + ", distinct chains:" + pricer.distinctChains());
+        //与逐单计算的对比
+        for (int depth : new int[] {1, 4, 16}) {
+            DrinkPricingBenchmark.run(depth, 100, 5);
+        }
     }
 }
@@ -1,4 +1,12 @@
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 /**
  * 运用共享技术来有効地支持大量细粒度对象的复用。它通过共享已经存在的又橡来大幅度减少需要创建的对象数量、
@@ -12,73 +20,249 @@ import java.util.HashMap;
  *
  * 如何解决：用唯一标识码判断，如果在内存中有，则返回这个唯一标识码所标识的对象。
  *
- * 关键代码：用 HashMap 存储这些对象。
+ * 关键代码：用 HashMap 存储这些对象。多线程环境下改用分段加锁的享元池，避免竞争并限制池的大小。
  *
  * 应用实例： 1、JAVA 中的 String，如果有则返回，如果没有则创建一个字符串保存在字符串缓存池里面。
  * 2、数据库的数据池。
  *
  */
 
+/**
+ * 内部状态（颜色）由享元自身持有且不可变；外部状态（坐标、半径）由调用方在 draw 时传入，
+ * 因此同一个享元可以被任意多个线程同时使用，无需加锁。
+ */
 interface Shape {
-    void draw();
+    void draw(int x, int y, int radius);
 }
 
-class Circle implements Shape {
-    private String color;
-    private int x;
-    private int y;
-    private int radius;
+final class Circle implements Shape {
+    private final String color;
 
     public Circle(String color){
         this.color = color;
     }
 
-    public void setX(int x) {
-        this.x = x;
+    public String getColor() {
+        return color;
     }
 
-    public void setY(int y) {
-        this.y = y;
+    @Override
+    public void draw(int x, int y, int radius) {
+        System.out.println("Circle: Draw() [Color : " + color
+                +", x : " + x +", y :" + y +", radius :" + radius);
     }
+}
+
+/**
+ * 享元池：按 key 分段（striping）加锁，每段是一个按访问顺序排列的 LinkedHashMap，
+ * 超出容量时淘汰该段中最久未使用的享元（LRU）。
+ * 同一个 key 的创建只在所属分段的锁内发生一次，不同分段之间互不阻塞。
+ */
+class FlyweightPool<K, V> {
+    private static final int MAX_SHARDS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
 
-    public void setRadius(int radius) {
-        this.radius = radius;
+    @SuppressWarnings("unchecked")
+    public FlyweightPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        // 分段数取不超过容量的 2 的幂，容量按段均分，余数分给前几段，各段容量之和恰好等于 capacity
+        int shards = Integer.highestOneBit(Math.min(MAX_SHARDS, capacity));
+        segments = (Segment<K, V>[]) new Segment<?, ?>[shards];
+        mask = shards - 1;
+        for (int i = 0; i < shards; i++) {
+            int perSegment = capacity / shards + (i < capacity % shards ? 1 : 0);
+            segments[i] = new Segment<>(perSegment, evictions);
+        }
     }
 
-    @Override
-    public void draw() {
-        System.out.println("Circle: Draw() [Color : " + color
-                +", x : " + x +", y :" + y +", radius :" + radius);
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> factory) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            V value = segment.get(key);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+            misses.increment();
+            value = factory.apply(key);
+            segment.put(key, value);
+            return value;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & mask];
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final LongAdder evictions;
+
+        Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
     }
 }
 
 class ShapeFactory {
-    private static final HashMap<String, Shape> circleMap = new HashMap<>();
+    // 享元池容量可通过 -Dflyweight.capacity 配置
+    private static final FlyweightPool<String, Shape> circlePool =
+            new FlyweightPool<>(Integer.getInteger("flyweight.capacity", 1024));
 
     public static Shape getCircle(String color) {
-        Circle circle = (Circle)circleMap.get(color);
+        return circlePool.computeIfAbsent(color, key -> {
+            System.out.println("Creating circle of color : " + key);
+            return new Circle(key);
+        });
+    }
+
+    public static String stats() {
+        return "hits : " + circlePool.hitCount() + ", misses : " + circlePool.missCount()
+                + ", evictions : " + circlePool.evictionCount() + ", size : " + circlePool.size();
+    }
+}
+/**
+ * 批量绘制时的外部状态存储：按列存放在基本类型数组中（x、y、radius 与享元编号各占一列），
+ * 不再为每个图形创建对象，顺序遍历时对缓存更友好，也便于按区间拆分到多个核心上并行绘制。
+ */
+class CircleBatch {
+    private final List<Shape> flyweights = new ArrayList<>();
+    private final Map<Shape, Integer> flyweightIds = new IdentityHashMap<>();
+
+    private int[] ids;
+    private int[] xs;
+    private int[] ys;
+    private int[] radii;
+    private int size;
+
+    public CircleBatch(int initialCapacity) {
+        ids = new int[initialCapacity];
+        xs = new int[initialCapacity];
+        ys = new int[initialCapacity];
+        radii = new int[initialCapacity];
+    }
+
+    // 为享元分配批内编号，之后可直接用编号追加外部状态
+    public int intern(Shape flyweight) {
+        Integer id = flyweightIds.get(flyweight);
+        if (id == null) {
+            id = flyweights.size();
+            flyweights.add(flyweight);
+            flyweightIds.put(flyweight, id);
+        }
+        return id;
+    }
 
-        if(circle == null) {
-            circle = new Circle(color);
-            circleMap.put(color, circle);
-            System.out.println("Creating circle of color : " + color);
+    public void add(Shape flyweight, int x, int y, int radius) {
+        add(intern(flyweight), x, y, radius);
+    }
+
+    public void add(int flyweightId, int x, int y, int radius) {
+        if (flyweightId < 0 || flyweightId >= flyweights.size()) {
+            throw new IllegalArgumentException("unknown flyweight id: " + flyweightId);
+        }
+        if (size == ids.length) {
+            int newCapacity = Math.max(16, size * 2);
+            ids = Arrays.copyOf(ids, newCapacity);
+            xs = Arrays.copyOf(xs, newCapacity);
+            ys = Arrays.copyOf(ys, newCapacity);
+            radii = Arrays.copyOf(radii, newCapacity);
+        }
+        ids[size] = flyweightId;
+        xs[size] = x;
+        ys[size] = y;
+        radii[size] = radius;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void drawAll() {
+        drawRange(flyweights.toArray(new Shape[0]), 0, size);
+    }
+
+    // 按区间切分后并行绘制，绘制顺序不保证
+    public void drawAllParallel() {
+        Shape[] table = flyweights.toArray(new Shape[0]);
+        int chunks = Runtime.getRuntime().availableProcessors() * 4;
+        int chunkSize = Math.max(1024, (size + chunks - 1) / chunks);
+        int chunkCount = (size + chunkSize - 1) / chunkSize;
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            int from = chunk * chunkSize;
+            drawRange(table, from, Math.min(size, from + chunkSize));
+        });
+    }
+
+    private void drawRange(Shape[] table, int from, int to) {
+        for (int i = from; i < to; i++) {
+            table[ids[i]].draw(xs[i], ys[i], radii[i]);
         }
-        return circle;
     }
 }
+
 public class FlyWeightDemo {
     private static final String colors[] =
             { "Red", "Green", "Blue", "White", "Black" };
 
     public static void main(String[] args) {
         for(int i=0; i < 20; ++i) {
-            Circle circle =
-                    (Circle)ShapeFactory.getCircle(getRandomColor());
-            circle.setX(getRandomX());
-            circle.setY(getRandomY());
-            circle.setRadius(100);
-            circle.draw();
+            Shape circle = ShapeFactory.getCircle(getRandomColor());
+            circle.draw(getRandomX(), getRandomY(), 100);
+        }
+        System.out.println(ShapeFactory.stats());
+
+        // 批量模式：外部状态按列存储，统一绘制
+        CircleBatch batch = new CircleBatch(16);
+        for(int i=0; i < 5; ++i) {
+            batch.add(ShapeFactory.getCircle(getRandomColor()), getRandomX(), getRandomY(), 50);
         }
+        batch.drawAll();
     }
 
     private static String getRandomColor() {
@@ -12,13 +12,56 @@
  * 增加了系统的复杂度；
  */
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
 interface Image {
     void display();
 }
 
 class RealImage implements Image {
 
+    // 设为 false 时改为把文件读入堆内存
+    private static final boolean MEMORY_MAPPED =
+            Boolean.parseBoolean(System.getProperty("image.mmap", "true"));
+
     private String fileName;
+    private ByteBuffer data;
 
     public RealImage(String fileName){
         this.fileName = fileName;
@@ -30,37 +73,914 @@ class RealImage implements Image {
         System.out.println("Displaying " + fileName);
     }
 
+    // 图像数据的只读视图，内存映射时不占用堆内存
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    public long sizeInBytes() {
+        return data.capacity();
+    }
+
+    /**
+     * 优先通过 FileChannel.map 内存映射文件，数据由操作系统按页加载，不复制到堆上；
+     * 映射失败（例如文件系统不支持）时退回为一次性读入堆内存。
+     */
     private void loadFromDisk(String fileName){
         System.out.println("Loading " + fileName);
+        Path path = Paths.get(fileName);
+        try {
+            if (MEMORY_MAPPED) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asReadOnlyBuffer();
+                    return;
+                } catch (UnsupportedOperationException e) {
+                    // 退回到堆内存读取
+                }
+            }
+            data = ByteBuffer.wrap(Files.readAllBytes(path)).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to load " + fileName, e);
+        }
+    }
+}
+
+/**
+ * 所有代理共享的图像缓存，按图像字节数限制总量，超出预算时淘汰最久未使用的已加载图像。
+ * 缓存的是加载任务本身，同一文件的并发请求共用一次加载；被淘汰的图像在下次请求时重新加载。
+ * 命中只读 ConcurrentHashMap 并更新条目的访问时间，不加锁；访问时间按 ACCESS_GRANULARITY_NANOS 粗粒度记录，
+ * 因此淘汰顺序是近似的 LRU。只有未命中后的加入、淘汰与失败清理在 this 上加锁。
+ */
+class ImageCache {
+
+    private static final ImageCache SHARED =
+            new ImageCache(Long.getLong("image.cache.bytes", 256L << 20));
+
+    // 同一条目在这个时间内的重复访问不再写入访问时间，避免多个线程反复写同一缓存行
+    private static final long ACCESS_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final class Entry {
+        final CompletableFuture<RealImage> future = new CompletableFuture<>();
+        volatile long lastAccess = System.nanoTime();
+
+        void touch() {
+            long now = System.nanoTime();
+            if (now - lastAccess > ACCESS_GRANULARITY_NANOS) {
+                lastAccess = now;
+            }
+        }
+
+        boolean loaded() {
+            return future.isDone() && !future.isCompletedExceptionally();
+        }
+    }
+
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // 只在 this 上加锁修改
+    private volatile long residentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ImageCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public static ImageCache shared() {
+        return SHARED;
+    }
+
+    public CompletableFuture<RealImage> get(String fileName, Executor loader) {
+        Entry existing = entries.get(fileName);
+        if (existing != null) {
+            hits.increment();
+            existing.touch();
+            return existing.future;
+        }
+        Entry created = new Entry();
+        existing = entries.putIfAbsent(fileName, created);
+        if (existing != null) {
+            hits.increment();
+            existing.touch();
+            return existing.future;
+        }
+        misses.increment();
+        try {
+            loader.execute(() -> {
+                try {
+                    RealImage image = new RealImage(fileName);
+                    admit(fileName, created, image);
+                    created.future.complete(image);
+                } catch (Throwable t) {
+                    fail(fileName, created, t);
+                }
+            });
+        } catch (RuntimeException e) {
+            // 加载任务被拒绝（例如线程池已关闭或队列已满）时，已发布的 future 不会再被完成，
+            // 必须移除并以异常结束，否则后续的请求会一直等待
+            fail(fileName, created, e);
+        }
+        return created.future;
+    }
+
+    private void fail(String fileName, Entry entry, Throwable cause) {
+        entries.remove(fileName, entry);
+        entry.future.completeExceptionally(cause);
+    }
+
+    public boolean isResident(String fileName) {
+        Entry entry = entries.get(fileName);
+        return entry != null && entry.loaded();
+    }
+
+    public long residentBytes() {
+        return residentBytes;
+    }
+
+    public String stats() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        double hitRate = total == 0 ? 0 : (double) hit / total;
+        return String.format("hit rate : %.2f, evictions : %d, resident bytes : %d",
+                hitRate, evictions.sum(), residentBytes());
+    }
+
+    // 加载完成后计入占用，并按访问时间从旧到新淘汰已加载的图像，直到回到预算以内。
+    // 每次淘汰扫描全部条目；图像条目数量少而单个体积大，扫描的开销远小于一次加载
+    private synchronized void admit(String fileName, Entry entry, RealImage image) {
+        if (entries.get(fileName) != entry) {
+            return;
+        }
+        long resident = residentBytes + image.sizeInBytes();
+        while (resident > maxBytes) {
+            Map.Entry<String, Entry> eldest = null;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                Entry value = candidate.getValue();
+                // 正在加载的条目和刚加载完成的条目不参与淘汰
+                if (value == entry || !value.loaded()) {
+                    continue;
+                }
+                if (eldest == null || value.lastAccess < eldest.getValue().lastAccess) {
+                    eldest = candidate;
+                }
+            }
+            if (eldest == null) {
+                break;
+            }
+            if (entries.remove(eldest.getKey(), eldest.getValue())) {
+                resident -= eldest.getValue().future.join().sizeInBytes();
+                evictions.increment();
+            }
+        }
+        residentBytes = resident;
     }
 }
 
+/**
+ * 异步虚拟代理：真实图像在后台线程池中加载，并发的首次请求只会触发一次加载。
+ * 可以在构造时或通过 prefetch() 提前开始加载；display() 等待加载完成，
+ * display(timeout, unit) 超时后显示占位内容而不阻塞调用方。
+ * 代理本身不持有真实图像，图像由共享的 ImageCache 管理，内存紧张时可被淘汰。
+ */
 class ProxyImage implements Image{
 
-    private RealImage realImage;
-    private String fileName;
+    /**
+     * 默认的加载线程池：加载以磁盘 I/O 为主，线程数取处理器数的两倍（可用 -Dimage.loader.threads 调整），
+     * 等待队列最多 1024 个任务。线程数和队列都有上限，突发的大量预取不会无限制地创建线程；
+     * 队列满时提交被拒绝，对应的 future 以 RejectedExecutionException 结束（见 ImageCache.get）。
+     * 空闲 30 秒的线程会退出。
+     */
+    private static final Executor DEFAULT_LOADER = newDefaultLoader();
+
+    private static Executor newDefaultLoader() {
+        int threads = Integer.getInteger("image.loader.threads", 2 * Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1024), r -> {
+                    Thread thread = new Thread(r, "image-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private final String fileName;
+    private final Executor loader;
+    private final ImageCache cache;
 
     public ProxyImage(String fileName){
+        this(fileName, false);
+    }
+
+    public ProxyImage(String fileName, boolean prefetch){
+        this(fileName, DEFAULT_LOADER, prefetch);
+    }
+
+    public ProxyImage(String fileName, Executor loader, boolean prefetch){
+        this(fileName, loader, ImageCache.shared(), prefetch);
+    }
+
+    public ProxyImage(String fileName, Executor loader, ImageCache cache, boolean prefetch){
         this.fileName = fileName;
+        this.loader = loader;
+        this.cache = cache;
+        if (prefetch) {
+            prefetch();
+        }
+    }
+
+    // 提示代理开始在后台加载，已在加载或已加载完成时不做任何事
+    public void prefetch() {
+        load();
+    }
+
+    public boolean isLoaded() {
+        return cache.isResident(fileName);
     }
 
     @Override
     public void display() {
-        if(realImage == null){
-            realImage = new RealImage(fileName);
+        load().join().display();
+    }
+
+    // 在超时时间内加载完成则显示图像并返回 true，否则显示占位内容并返回 false
+    public boolean display(long timeout, TimeUnit unit) {
+        try {
+            load().get(timeout, unit).display();
+            return true;
+        } catch (TimeoutException e) {
+            System.out.println("Loading " + fileName + " ...");
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    private CompletableFuture<RealImage> load() {
+        return cache.get(fileName, loader);
+    }
+}
+
+// 代理方法的后续调用：参数按 Object[] 传入，返回值装箱为 Object
+interface Invocation {
+    Object proceed(Object[] args) throws Throwable;
+}
+
+/**
+ * 可叠加的代理行为。wrap 接收本方法后续调用链的 MethodHandle，返回包装后的 MethodHandle，
+ * 类型必须与 next 一致；不需要处理的方法直接返回 next，不会带来任何额外开销。
+ */
+interface ProxyBehaviour {
+    MethodHandle wrap(Method method, MethodHandle next);
+}
+
+// 以拦截器形式实现的行为，由 wrap 负责 MethodHandle 与 Object[] 之间的转换。
+// 与 java.lang.reflect.Proxy 一样，intercept 抛出方法未声明的受检异常时包装为 UndeclaredThrowableException；
+// 被包装的是 InterruptedException 时恢复线程的中断状态
+abstract class InterceptingBehaviour implements ProxyBehaviour {
+
+    private static final MethodHandle INTERCEPT;
+
+    static {
+        try {
+            INTERCEPT = MethodHandles.lookup().findVirtual(InterceptingBehaviour.class, "dispatch",
+                    MethodType.methodType(Object.class, Method.class, Invocation.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    protected abstract boolean appliesTo(Method method);
+
+    protected abstract Object intercept(Method method, Invocation next, Object[] args) throws Throwable;
+
+    @Override
+    public MethodHandle wrap(Method method, MethodHandle next) {
+        if (!appliesTo(method)) {
+            return next;
+        }
+        int arity = next.type().parameterCount();
+        MethodHandle spread = next.asSpreader(Object[].class, arity).asType(
+                MethodType.methodType(Object.class, Object[].class));
+        Invocation invocation = args -> (Object) spread.invokeExact(args);
+        return MethodHandles.insertArguments(INTERCEPT, 0, this, method, invocation)
+                .asCollector(Object[].class, arity)
+                .asType(next.type());
+    }
+
+    private Object dispatch(Method method, Invocation next, Object[] args) throws Throwable {
+        try {
+            return intercept(method, next, args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            for (Class<?> declared : method.getExceptionTypes()) {
+                if (declared.isInstance(e)) {
+                    throw e;
+                }
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+}
+
+// 记忆化：相同参数的调用只执行一次，适用于有返回值且结果只由参数决定的方法。
+// 结果按 (代理, 方法) 分开缓存：每次 wrap 都创建独立的缓存，同一个行为实例用在多个代理上也不会互相串结果。
+// 每个缓存最多保留 maxEntries 个结果，超出时随机淘汰一个（不维护访问顺序，命中时无需加锁）
+class MemoizeBehaviour implements ProxyBehaviour {
+    private static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final int maxEntries;
+
+    MemoizeBehaviour() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    MemoizeBehaviour(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public MethodHandle wrap(Method method, MethodHandle next) {
+        if (method.getReturnType() == void.class) {
+            return next;
+        }
+        return new MethodCache(maxEntries).wrap(method, next);
+    }
+
+    private static final class MethodCache extends InterceptingBehaviour {
+        private static final Object NULL = new Object();
+
+        private final Map<List<Object>, Object> results = new ConcurrentHashMap<>();
+        private final int maxEntries;
+
+        MethodCache(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean appliesTo(Method method) {
+            return true;
+        }
+
+        @Override
+        protected Object intercept(Method method, Invocation next, Object[] args) throws Throwable {
+            // args 是每次调用新收集的数组，可以直接作为键
+            List<Object> key = Arrays.asList(args);
+            Object result = results.get(key);
+            if (result == null) {
+                result = next.proceed(args);
+                evictIfFull();
+                Object previous = results.putIfAbsent(key, result == null ? NULL : result);
+                if (previous != null) {
+                    result = previous;
+                }
+            }
+            return result == NULL ? null : result;
+        }
+
+        // 并发插入时可能短暂超出上限几个条目
+        private void evictIfFull() {
+            if (results.size() >= maxEntries) {
+                Iterator<List<Object>> keys = results.keySet().iterator();
+                if (keys.hasNext()) {
+                    keys.next();
+                    keys.remove();
+                }
+            }
+        }
+    }
+}
+
+// 调用耗时直方图，按 2 的幂划分纳秒区间
+class LatencyHistogram extends InterceptingBehaviour {
+    private final Map<Method, AtomicLongArray> histograms = new ConcurrentHashMap<>();
+
+    // 在包装时登记方法，appliesTo 本身不修改状态
+    @Override
+    public MethodHandle wrap(Method method, MethodHandle next) {
+        histograms.putIfAbsent(method, new AtomicLongArray(64));
+        return super.wrap(method, next);
+    }
+
+    @Override
+    protected boolean appliesTo(Method method) {
+        return true;
+    }
+
+    @Override
+    protected Object intercept(Method method, Invocation next, Object[] args) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return next.proceed(args);
+        } finally {
+            long nanos = Math.max(1, System.nanoTime() - start);
+            histograms.get(method).incrementAndGet(63 - Long.numberOfLeadingZeros(nanos));
+        }
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Method, AtomicLongArray> entry : histograms.entrySet()) {
+            AtomicLongArray buckets = entry.getValue();
+            sb.append(entry.getKey().getName()).append(':');
+            for (int i = 0; i < buckets.length(); i++) {
+                long count = buckets.get(i);
+                if (count > 0) {
+                    sb.append(" [").append(1L << i).append("ns, ").append(1L << (i + 1))
+                            .append("ns) x").append(count);
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
+
+// 并发上限：同时执行的调用数不超过 permits，超出的调用阻塞等待
+class ConcurrencyLimit extends InterceptingBehaviour {
+    private final Semaphore permits;
+
+    ConcurrencyLimit(int permits) {
+        this.permits = new Semaphore(permits);
+    }
+
+    @Override
+    protected boolean appliesTo(Method method) {
+        return true;
+    }
+
+    @Override
+    protected Object intercept(Method method, Invocation next, Object[] args) throws Throwable {
+        permits.acquire();
+        try {
+            return next.proceed(args);
+        } finally {
+            permits.release();
+        }
+    }
+}
+
+/**
+ * 通用代理工厂：为任意接口在运行时生成代理类（隐藏类，不使用 java.lang.reflect.Proxy）。
+ * 每次 build 生成一个新类，各方法的 MethodHandle 作为类数据以常量形式加载，方法体只是 invokeExact 转发，
+ * JIT 可以把整条调用链当作常量内联；
+ * 行为按添加顺序由内向外叠加在 MethodHandle 上，没有行为时直接调用真实对象。
+ * 真实对象可以直接给出，也可以给出 Supplier，在第一次调用时才创建（延迟初始化）。
+ * equals、hashCode、toString 与 java.lang.reflect.Proxy 一样直接转发给真实对象（不经过行为）：
+ * 代理的 hashCode 与真实对象相同，proxy.equals(target) 为 true，而 target.equals(proxy) 通常为 false。
+ * equals 的参数就是代理自己时直接返回 true，保证自反性（真实对象的 equals 不认识代理）。
+ */
+class ProxyFactory<I> {
+
+    private static final List<Method> OBJECT_METHODS;
+
+    private static final MethodHandle LAZY_GET;
+    private static final MethodHandle SAME;
+
+    static {
+        try {
+            LAZY_GET = MethodHandles.lookup().findVirtual(LazyTarget.class, "get",
+                    MethodType.methodType(Object.class));
+            SAME = MethodHandles.lookup().findStatic(ProxyFactory.class, "same",
+                    MethodType.methodType(boolean.class, Object.class, Object.class));
+            OBJECT_METHODS = List.of(Object.class.getMethod("equals", Object.class),
+                    Object.class.getMethod("hashCode"), Object.class.getMethod("toString"));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class LazyTarget {
+        private final Supplier<?> supplier;
+        private volatile Object target;
+
+        LazyTarget(Supplier<?> supplier) {
+            this.supplier = supplier;
+        }
+
+        Object get() {
+            Object current = target;
+            if (current == null) {
+                synchronized (this) {
+                    current = target;
+                    if (current == null) {
+                        current = supplier.get();
+                        target = current;
+                    }
+                }
+            }
+            return current;
+        }
+    }
+
+    private final Class<I> iface;
+    private final MethodHandles.Lookup lookup;
+    private final List<ProxyBehaviour> behaviours = new ArrayList<>();
+    private Object target;
+    private Supplier<? extends I> lazyTarget;
+
+    private ProxyFactory(Class<I> iface, MethodHandles.Lookup lookup) {
+        if (!iface.isInterface()) {
+            throw new IllegalArgumentException(iface.getName() + " is not an interface");
+        }
+        this.iface = iface;
+        this.lookup = lookup;
+    }
+
+    // lookup 必须与接口位于同一个包，生成的代理类会定义在该包中
+    public static <I> ProxyFactory<I> forInterface(Class<I> iface, MethodHandles.Lookup lookup) {
+        return new ProxyFactory<>(iface, lookup);
+    }
+
+    public ProxyFactory<I> target(I instance) {
+        this.target = instance;
+        this.lazyTarget = null;
+        return this;
+    }
+
+    public ProxyFactory<I> lazyTarget(Supplier<? extends I> supplier) {
+        this.lazyTarget = supplier;
+        this.target = null;
+        return this;
+    }
+
+    public ProxyFactory<I> with(ProxyBehaviour behaviour) {
+        behaviours.add(behaviour);
+        return this;
+    }
+
+    public I build() {
+        if (target == null && lazyTarget == null) {
+            throw new IllegalStateException("no target for " + iface.getName());
+        }
+        List<Method> methods = ProxyClassWriter.abstractMethods(iface);
+        int interfaceMethods = methods.size();
+        for (Method method : OBJECT_METHODS) {
+            if (!declares(methods, method)) {
+                methods.add(method);
+            }
+        }
+        MethodHandle[] handles = new MethodHandle[methods.size()];
+        LazyTarget lazy = lazyTarget == null ? null : new LazyTarget(lazyTarget);
+        try {
+            for (int i = 0; i < handles.length; i++) {
+                Method method = methods.get(i);
+                MethodType type = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+                MethodHandle invoker = lookup.unreflect(method);
+                MethodHandle handle;
+                if (lazy == null) {
+                    handle = invoker.bindTo(target);
+                } else {
+                    MethodHandle getter = LAZY_GET.bindTo(lazy).asType(
+                            MethodType.methodType(invoker.type().parameterType(0)));
+                    handle = MethodHandles.collectArguments(invoker, 0, getter);
+                }
+                handle = handle.asType(type);
+                // 行为只作用于接口方法，转发的 Object 方法直接调用真实对象
+                if (i < interfaceMethods) {
+                    for (ProxyBehaviour behaviour : behaviours) {
+                        handle = behaviour.wrap(method, handle).asType(type);
+                    }
+                }
+                if (ProxyClassWriter.passesReceiver(method)) {
+                    // (proxy, other) -> proxy == other || target.equals(other)
+                    handle = MethodHandles.guardWithTest(SAME,
+                            MethodHandles.dropArguments(MethodHandles.constant(boolean.class, true),
+                                    0, Object.class, Object.class),
+                            MethodHandles.dropArguments(handle, 0, Object.class));
+                }
+                handles[i] = handle;
+            }
+            byte[] bytes = ProxyClassWriter.write(iface, methods);
+            MethodHandles.Lookup proxyLookup = lookup.defineHiddenClassWithClassData(bytes, List.of(handles), true);
+            MethodHandle constructor = proxyLookup.findConstructor(proxyLookup.lookupClass(),
+                    MethodType.methodType(void.class));
+            return iface.cast(constructor.invoke());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("failed to build proxy for " + iface.getName(), e);
+        }
+    }
+
+    private static boolean same(Object proxy, Object other) {
+        return proxy == other;
+    }
+
+    // 接口自己声明了同名同参数的抽象方法（例如 String toString();）时按接口方法处理
+    private static boolean declares(List<Method> methods, Method method) {
+        for (Method declared : methods) {
+            if (declared.getName().equals(method.getName())
+                    && Arrays.equals(declared.getParameterTypes(), method.getParameterTypes())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
+
+/**
+ * 生成代理类的字节码。生成的类等价于：
+ *
+ * final class Image$$Proxy implements Image {
+ *     public void display() { ((MethodHandle) classDataAt(0)).invokeExact(); }
+ *     public boolean equals(Object o) { return ((MethodHandle) classDataAt(1)).invokeExact((Object) this, o); }
+ *     ...
+ * }
+ *
+ * 其中 classDataAt(i) 是以 MethodHandles.classDataAt 为引导方法的动态常量（ldc），
+ * 第一次执行时解析，之后就是常量。方法体没有分支，因此不需要 StackMapTable。
+ */
+class ProxyClassWriter {
+    private static final String MH = "java/lang/invoke/MethodHandle";
+    private static final String CLASS_DATA_AT_DESCRIPTOR = "(Ljava/lang/invoke/MethodHandles$Lookup;"
+            + "Ljava/lang/String;Ljava/lang/Class;I)Ljava/lang/Object;";
+
+    private final ByteArrayOutputStream bootstrapMethods = new ByteArrayOutputStream();
+    private final DataOutputStream bootstrapOut = new DataOutputStream(bootstrapMethods);
+    private int bootstrapCount;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    static List<Method> abstractMethods(Class<?> iface) {
+        Map<String, Method> methods = new LinkedHashMap<>();
+        for (Method method : iface.getMethods()) {
+            if (Modifier.isAbstract(method.getModifiers())) {
+                methods.putIfAbsent(method.getName() + MethodType.methodType(
+                        method.getReturnType(), method.getParameterTypes()).toMethodDescriptorString(), method);
+            }
+        }
+        return new ArrayList<>(methods.values());
+    }
+
+    // equals 额外传入代理自身，用于判断自反
+    static boolean passesReceiver(Method method) {
+        return method.getName().equals("equals") && method.getReturnType() == boolean.class
+                && Arrays.equals(method.getParameterTypes(), new Class<?>[] {Object.class});
+    }
+
+    static byte[] write(Class<?> iface, List<Method> methods) throws IOException {
+        return new ProxyClassWriter().generate(iface, methods);
+    }
+
+    private byte[] generate(Class<?> iface, List<Method> methods) throws IOException {
+        String ifaceName = iface.getName().replace('.', '/');
+        int thisClass = classRef(ifaceName + "$$Proxy");
+        int superClass = classRef("java/lang/Object");
+        int ifaceClass = classRef(ifaceName);
+        int objectInit = methodRef(superClass, "<init>", "()V");
+        int classDataAt = methodHandleRef(methodRef(classRef("java/lang/invoke/MethodHandles"),
+                "classDataAt", CLASS_DATA_AT_DESCRIPTOR));
+        int code = utf8("Code");
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeShort(0x0031);                  // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(ifaceClass);
+
+        out.writeShort(0);                       // 字段
+
+        out.writeShort(methods.size() + 1);
+        // 构造函数
+        out.writeShort(0x0001);
+        out.writeShort(utf8("<init>"));
+        out.writeShort(utf8("()V"));
+        out.writeShort(1);
+        byte[] init = {
+            0x2a,                                // aload_0
+            (byte) 0xb7, hi(objectInit), lo(objectInit),   // invokespecial Object.<init>
+            (byte) 0xb1                          // return
+        };
+        writeCode(out, code, 1, 1, init);
+
+        for (int i = 0; i < methods.size(); i++) {
+            Method method = methods.get(i);
+            MethodType type = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+            String descriptor = type.toMethodDescriptorString();
+            boolean receiver = passesReceiver(method);
+            int invokeExact = methodRef(classRef(MH), "invokeExact",
+                    receiver ? type.insertParameterTypes(0, Object.class).toMethodDescriptorString() : descriptor);
+            int handle = dynamicConstant(classDataAt, i);
+            ByteArrayOutputStream insns = new ByteArrayOutputStream();
+            insns.write(0x13);                   // ldc_w classDataAt(i)
+            insns.write(hi(handle));
+            insns.write(lo(handle));
+            if (receiver) {
+                insns.write(0x2a);               // aload_0
+            }
+            int slot = 1;
+            for (Class<?> param : method.getParameterTypes()) {
+                insns.write(loadOpcode(param));
+                insns.write(slot);
+                slot += (param == long.class || param == double.class) ? 2 : 1;
+            }
+            insns.write(0xb6);                   // invokevirtual MethodHandle.invokeExact
+            insns.write(hi(invokeExact));
+            insns.write(lo(invokeExact));
+            insns.write(returnOpcode(method.getReturnType()));
+
+            out.writeShort(0x0011);              // ACC_PUBLIC | ACC_FINAL
+            out.writeShort(utf8(method.getName()));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            writeCode(out, code, slot + 2, slot, insns.toByteArray());
+        }
+        out.writeShort(1);                       // 类属性：BootstrapMethods
+        out.writeShort(utf8("BootstrapMethods"));
+        out.writeInt(2 + bootstrapMethods.size());
+        out.writeShort(bootstrapCount);
+        out.write(bootstrapMethods.toByteArray());
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        DataOutputStream classFile = new DataOutputStream(result);
+        classFile.writeInt(0xCAFEBABE);
+        classFile.writeShort(0);
+        classFile.writeShort(61);                // Java 17
+        classFile.writeShort(poolCount);
+        classFile.write(pool.toByteArray());
+        classFile.write(body.toByteArray());
+        return result.toByteArray();
+    }
+
+    private static void writeCode(DataOutputStream out, int codeName, int maxStack, int maxLocals,
+                                  byte[] code) throws IOException {
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                       // 异常表
+        out.writeShort(0);                       // 属性
+    }
+
+    private static int loadOpcode(Class<?> type) {
+        if (type == long.class) {
+            return 0x16;                         // lload
+        } else if (type == float.class) {
+            return 0x17;                         // fload
+        } else if (type == double.class) {
+            return 0x18;                         // dload
+        } else if (type.isPrimitive()) {
+            return 0x15;                         // iload
+        }
+        return 0x19;                             // aload
+    }
+
+    private static int returnOpcode(Class<?> type) {
+        if (type == void.class) {
+            return 0xb1;                         // return
+        } else if (type == long.class) {
+            return 0xad;                         // lreturn
+        } else if (type == float.class) {
+            return 0xae;                         // freturn
+        } else if (type == double.class) {
+            return 0xaf;                         // dreturn
+        } else if (type.isPrimitive()) {
+            return 0xac;                         // ireturn
         }
-        realImage.display();
+        return 0xb0;                             // areturn
+    }
+
+    private int utf8(String value) throws IOException {
+        Integer index = constants.get("U" + value);
+        if (index == null) {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(value);
+            index = poolCount++;
+            constants.put("U" + value, index);
+        }
+        return index;
+    }
+
+    private int classRef(String internalName) throws IOException {
+        int name = utf8(internalName);
+        return constant("C" + internalName, 7, name, -1);
+    }
+
+    private int methodHandleRef(int staticMethod) throws IOException {
+        Integer index = constants.get("H" + staticMethod);
+        if (index == null) {
+            poolOut.writeByte(15);
+            poolOut.writeByte(6);                // REF_invokeStatic
+            poolOut.writeShort(staticMethod);
+            index = poolCount++;
+            constants.put("H" + staticMethod, index);
+        }
+        return index;
+    }
+
+    // 以 bootstrap(lookup, "_", MethodHandle.class, i) 解析的动态常量
+    private int dynamicConstant(int bootstrap, int i) throws IOException {
+        Integer value = constants.get("I" + i);
+        if (value == null) {
+            poolOut.writeByte(3);
+            poolOut.writeInt(i);
+            value = poolCount++;
+            constants.put("I" + i, value);
+        }
+        bootstrapOut.writeShort(bootstrap);
+        bootstrapOut.writeShort(1);
+        bootstrapOut.writeShort(value);
+        int bootstrapIndex = bootstrapCount++;
+        return constant("D" + i, 17, bootstrapIndex, nameAndType("_", "L" + MH + ";"));
+    }
+
+    private int methodRef(int owner, String name, String descriptor) throws IOException {
+        int nameAndType = nameAndType(name, descriptor);
+        return constant("M" + owner + "." + name + descriptor, 10, owner, nameAndType);
+    }
+
+    private int nameAndType(String name, String descriptor) throws IOException {
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        return constant("N" + name + descriptor, 12, n, d);
+    }
+
+    private int constant(String key, int tag, int first, int second) throws IOException {
+        Integer index = constants.get(key);
+        if (index == null) {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(first);
+            if (second >= 0) {
+                poolOut.writeShort(second);
+            }
+            index = poolCount++;
+            constants.put(key, index);
+        }
+        return index;
+    }
+
+    private static byte hi(int value) {
+        return (byte) (value >>> 8);
+    }
+
+    private static byte lo(int value) {
+        return (byte) value;
     }
 }
 
 public class ProxyDemo {
-    public static void main(String[] args) {
-        Image image = new ProxyImage("test_10mb.jpg");
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("proxy-demo");
+        dir.toFile().deleteOnExit();
+        String image10mb = createImage(dir, "test_10mb.jpg", 10L << 20);
+        String image20mb = createImage(dir, "test_20mb.jpg", 20L << 20);
+
+        Image image = new ProxyImage(image10mb);
 
         // 图像将从磁盘加载
         image.display();
         System.out.println("");
         // 图像不需要从磁盘加载
         image.display();
+        System.out.println("");
+        // 构造时即在后台预加载，最多等待 1 秒
+        ProxyImage prefetched = new ProxyImage(image20mb, true);
+        prefetched.display(1, TimeUnit.SECONDS);
+        System.out.println(ImageCache.shared().stats());
+        System.out.println("");
+
+        // 生成的通用代理：延迟创建真实对象，统计调用耗时并限制并发
+        LatencyHistogram histogram = new LatencyHistogram();
+        Image generated = ProxyFactory.forInterface(Image.class, MethodHandles.lookup())
+                .lazyTarget(() -> new RealImage(image10mb))
+                .with(histogram)
+                .with(new ConcurrencyLimit(4))
+                .build();
+        generated.display();
+        generated.display();
+        System.out.print(histogram.report());
+    }
+
+    // 生成指定大小的示例文件（稀疏文件，不实际写入数据）
+    private static String createImage(Path dir, String name, long size) throws IOException {
+        Path file = dir.resolve(name);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size);
+        }
+        file.toFile().deleteOnExit();
+        return file.toString();
     }
 }